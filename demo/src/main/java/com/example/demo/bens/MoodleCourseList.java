@@ -0,0 +1,17 @@
+package com.example.demo.bens;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Resposta de core_course_get_courses_by_field e core_course_search_courses
+ * (total só vem na pesquisa)
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record MoodleCourseList(Integer total, List<MoodleCourseSummary> courses) {
+
+    public MoodleCourseList {
+        courses = courses != null ? courses : List.of();
+    }
+}
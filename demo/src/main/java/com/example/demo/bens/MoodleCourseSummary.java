@@ -0,0 +1,11 @@
+package com.example.demo.bens;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Curso devolvido por core_course_get_courses_by_field e core_course_search_courses;
+ * só os campos usados pela integração são lidos
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record MoodleCourseSummary(int id, String shortname, String fullname, String idnumber, Integer categoryid) {
+}
@@ -0,0 +1,10 @@
+package com.example.demo.bens;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Entrada da resposta de core_course_create_courses
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record MoodleCreatedCourse(int id, String shortname) {
+}
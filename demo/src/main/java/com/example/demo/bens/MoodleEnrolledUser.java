@@ -0,0 +1,20 @@
+package com.example.demo.bens;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Usuário inscrito num curso, devolvido por core_enrol_get_enrolled_users
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record MoodleEnrolledUser(int id, String username, String idnumber, List<Role> roles) {
+
+    public MoodleEnrolledUser {
+        roles = roles != null ? roles : List.of();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Role(int roleid, String shortname) {
+    }
+}
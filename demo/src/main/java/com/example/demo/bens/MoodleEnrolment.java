@@ -0,0 +1,61 @@
+package com.example.demo.bens;
+
+public class MoodleEnrolment {
+
+    private String username;
+    private Integer userid;
+    private Integer courseid;
+    private Integer roleid;
+
+    public MoodleEnrolment() {
+    }
+
+    public MoodleEnrolment(String username, Integer userid, Integer courseid, Integer roleid) {
+        this.username = username;
+        this.userid = userid;
+        this.courseid = courseid;
+        this.roleid = roleid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Integer getUserid() {
+        return userid;
+    }
+
+    public void setUserid(Integer userid) {
+        this.userid = userid;
+    }
+
+    public Integer getCourseid() {
+        return courseid;
+    }
+
+    public void setCourseid(Integer courseid) {
+        this.courseid = courseid;
+    }
+
+    public Integer getRoleid() {
+        return roleid;
+    }
+
+    public void setRoleid(Integer roleid) {
+        this.roleid = roleid;
+    }
+
+    @Override
+    public String toString() {
+        return "MoodleEnrolment{" +
+                "username='" + username + '\'' +
+                ", userid=" + userid +
+                ", courseid=" + courseid +
+                ", roleid=" + roleid +
+                '}';
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.demo.bens;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Resposta de core_user_get_users
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record MoodleUserList(List<MoodleUserSummary> users) {
+
+    public MoodleUserList {
+        users = users != null ? users : List.of();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo.bens;
+
+public class MoodleUserRequest {
+
+    private String personId;
+    private String username;
+    private String firstname;
+    private String lastname;
+    private String email;
+
+    public MoodleUserRequest() {
+    }
+
+    public MoodleUserRequest(String personId, String username, String firstname, String lastname, String email) {
+        this.personId = personId;
+        this.username = username;
+        this.firstname = firstname;
+        this.lastname = lastname;
+        this.email = email;
+    }
+
+    public String getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(String personId) {
+        this.personId = personId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getFirstname() {
+        return firstname;
+    }
+
+    public void setFirstname(String firstname) {
+        this.firstname = firstname;
+    }
+
+    public String getLastname() {
+        return lastname;
+    }
+
+    public void setLastname(String lastname) {
+        this.lastname = lastname;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    @Override
+    public String toString() {
+        return "MoodleUserRequest{" +
+                "personId='" + personId + '\'' +
+                ", username='" + username + '\'' +
+                '}';
+    }
+}
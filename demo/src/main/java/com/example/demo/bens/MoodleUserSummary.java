@@ -0,0 +1,11 @@
+package com.example.demo.bens;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Usuário devolvido por core_user_create_users, core_user_get_users_by_field e
+ * core_user_get_users; preferências, campos personalizados e restantes campos são ignorados
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record MoodleUserSummary(int id, String username, String idnumber) {
+}
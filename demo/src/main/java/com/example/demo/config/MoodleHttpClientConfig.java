@@ -0,0 +1,112 @@
+package com.example.demo.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.HttpComponentsClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+@Configuration
+public class MoodleHttpClientConfig {
+
+    // Tamanho do pool de conexões (total e por host do Moodle)
+    @Value("${app.moodle.http.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${app.moodle.http.max-connections-per-host:20}")
+    private int maxConnectionsPerHost;
+
+    // Timeouts em milissegundos
+    @Value("${app.moodle.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${app.moodle.http.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    @Value("${app.moodle.http.pool-acquire-timeout-ms:2000}")
+    private long poolAcquireTimeoutMs;
+
+    // Keep-alive e limpeza de conexões inativas
+    @Value("${app.moodle.http.keep-alive-ms:30000}")
+    private long keepAliveMs;
+
+    @Value("${app.moodle.http.idle-eviction-ms:60000}")
+    private long idleEvictionMs;
+
+    // Threads de I/O não bloqueantes (independente do número de pedidos em curso)
+    @Value("${app.moodle.http.io-threads:2}")
+    private int ioThreads;
+
+    // Tamanho máximo de uma resposta do Moodle em memória
+    @Value("${app.moodle.http.max-response-bytes:16777216}")
+    private int maxResponseBytes;
+
+    /**
+     * Pool de conexões partilhado por todas as chamadas ao Moodle
+     */
+    @Bean(destroyMethod = "close")
+    public PoolingAsyncClientConnectionManager moodleConnectionManager() {
+        return PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerHost)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Cliente HTTP assíncrono com keep-alive e remoção periódica de conexões expiradas
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpAsyncClient moodleHttpClient(PoolingAsyncClientConnectionManager moodleConnectionManager) {
+        return HttpAsyncClients.custom()
+                .setConnectionManager(moodleConnectionManager)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolAcquireTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(keepAliveMs))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleEvictionMs))
+                .build();
+    }
+
+    /**
+     * WebClient usado pelo MoodleClient
+     */
+    @Bean
+    public WebClient moodleWebClient(WebClient.Builder webClientBuilder, CloseableHttpAsyncClient moodleHttpClient) {
+        return webClientBuilder.clone()
+                .clientConnector(new HttpComponentsClientHttpConnector(moodleHttpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(maxResponseBytes))
+                .build();
+    }
+
+    /**
+     * Expõe as métricas de saturação do pool (httpcomponents.httpclient.pool.*)
+     */
+    @Bean
+    public MeterBinder moodleConnectionPoolMetrics(PoolingAsyncClientConnectionManager moodleConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(moodleConnectionManager, "moodle");
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.demo.config;
+
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consumidores e prefetch configurados de cada listener container (o container não os expõe),
+ * para os poder reduzir temporariamente e repor depois
+ */
+@Component
+public class MoodleListenerLimits {
+
+    /**
+     * Consumidores mínimos e máximos e prefetch de um container
+     */
+    public record Limits(int concurrency, int maxConcurrency, int prefetch) {
+    }
+
+    private final Map<String, Limits> limits = new ConcurrentHashMap<>();
+
+    void register(String listenerId, Limits containerLimits) {
+        limits.put(listenerId, containerLimits);
+    }
+
+    /**
+     * Um só consumidor com uma mensagem de cada vez; o container tem de estar parado
+     */
+    public void reduce(SimpleMessageListenerContainer container) {
+        // Ao reduzir, os mínimos baixam antes dos máximos
+        container.setConcurrentConsumers(1);
+        container.setMaxConcurrentConsumers(1);
+        container.setPrefetchCount(1);
+    }
+
+    /**
+     * Repõe os valores configurados; o container tem de estar parado
+     */
+    public void restore(String listenerId, SimpleMessageListenerContainer container) {
+        Limits configured = limits.get(listenerId);
+        if (configured == null) {
+            return;
+        }
+        // Ao aumentar, os máximos sobem antes dos mínimos
+        container.setMaxConcurrentConsumers(configured.maxConcurrency());
+        container.setConcurrentConsumers(configured.concurrency());
+        container.setPrefetchCount(configured.prefetch());
+    }
+}
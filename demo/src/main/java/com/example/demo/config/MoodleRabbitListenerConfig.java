@@ -0,0 +1,222 @@
+package com.example.demo.config;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageListener;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uma fábrica de listener containers por fila, afinada em app.rabbitmq.listeners.&lt;nome&gt;:
+ * consumidores mínimos e máximos, prefetch e redução dos consumidores quando ociosos.
+ * Cada container publica a sua utilização (consumidores ocupados / ativos).
+ */
+@Configuration
+public class MoodleRabbitListenerConfig {
+
+    private static final String PREFIX = "app.rabbitmq.listeners.";
+
+    private final SimpleRabbitListenerContainerFactoryConfigurer configurer;
+    private final ConnectionFactory connectionFactory;
+    private final MeterRegistry meterRegistry;
+    private final Environment environment;
+    private final MoodleListenerLimits listenerLimits;
+
+    // Consumidores da fila de sincronização quando app.rabbitmq.listeners.sync não os define
+    @Value("${app.camel.concurrentConsumers:1}")
+    private int syncConcurrentConsumers;
+
+    public MoodleRabbitListenerConfig(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory, MeterRegistry meterRegistry, Environment environment,
+            MoodleListenerLimits listenerLimits) {
+        this.configurer = configurer;
+        this.connectionFactory = connectionFactory;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
+        this.listenerLimits = listenerLimits;
+    }
+
+    /**
+     * Fila de sincronização (bulk); acima de 1 consumidor a ordem por grupo deixa de ser
+     * garantida, para isso existe o modo particionado
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory syncListenerFactory() {
+        return factory("sync", syncConcurrentConsumers);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory syncInteractiveListenerFactory() {
+        return factory("sync-interactive", 1);
+    }
+
+    /**
+     * Partições: sempre um consumidor por fila, só o prefetch é configurável
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory syncPartitionListenerFactory() {
+        return factory("sync-partition", 1, 1, setting("sync-partition", "prefetch", 10));
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory createCourseListenerFactory() {
+        return factory("create-course", 1);
+    }
+
+    /**
+     * Modo em lote da fila moodle-create-course-queues: entrega até batch.size mensagens,
+     * esperando no máximo batch.timeout-ms; o listener confirma cada mensagem (ack manual)
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory createCourseBatchListenerFactory() {
+        int batchSize = setting("create-course", "batch.size", 50);
+        int concurrency = setting("create-course", "concurrency", 1);
+        // Cada consumidor precisa de ter um lote inteiro por confirmar
+        SimpleRabbitListenerContainerFactory factory = factory("create-course", concurrency,
+                Math.max(concurrency, setting("create-course", "max-concurrency", concurrency)),
+                Math.max(batchSize, setting("create-course", "prefetch", 10)));
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setBatchReceiveTimeout((long) setting("create-course", "batch.timeout-ms", 500));
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory exampleListenerFactory() {
+        return factory("example", 1);
+    }
+
+    private SimpleRabbitListenerContainerFactory factory(String name, int defaultConcurrency) {
+        int concurrency = setting(name, "concurrency", defaultConcurrency);
+        return factory(name, concurrency, Math.max(concurrency, setting(name, "max-concurrency", concurrency)),
+                setting(name, "prefetch", 10));
+    }
+
+    private SimpleRabbitListenerContainerFactory factory(String name, int concurrency, int maxConcurrency,
+            int prefetch) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(maxConcurrency);
+        factory.setPrefetchCount(prefetch);
+        // Um consumidor extra arranca após start-trigger receções seguidas com mensagem e
+        // pára após idle-trigger receções vazias (cada uma espera até receive-timeout-ms)
+        factory.setConsecutiveActiveTrigger(setting(name, "start-trigger", 10));
+        factory.setConsecutiveIdleTrigger(setting(name, "idle-trigger", 10));
+        factory.setStartConsumerMinInterval((long) setting(name, "start-interval-ms", 10000));
+        factory.setStopConsumerMinInterval((long) setting(name, "stop-interval-ms", 60000));
+        factory.setReceiveTimeout((long) setting(name, "receive-timeout-ms", 1000));
+        MoodleListenerLimits.Limits limits = new MoodleListenerLimits.Limits(concurrency, maxConcurrency, prefetch);
+        factory.setContainerCustomizer(container -> {
+            measure(name, container);
+            if (container.getListenerId() != null) {
+                listenerLimits.register(container.getListenerId(), limits);
+            }
+        });
+        return factory;
+    }
+
+    private int setting(String name, String key, int defaultValue) {
+        return environment.getProperty(PREFIX + name + "." + key, Integer.class, defaultValue);
+    }
+
+    /**
+     * Gauges moodle.rabbit.listener.consumers, .busy e .utilisation do container
+     */
+    private void measure(String name, SimpleMessageListenerContainer container) {
+        String listener = container.getListenerId() != null ? container.getListenerId() : name;
+        AtomicInteger busy = new AtomicInteger();
+        Object delegate = container.getMessageListener();
+        container.setMessageListener(delegate instanceof ChannelAwareBatchMessageListener
+                || delegate instanceof BatchMessageListener
+                ? new BatchBusyTrackingListener(delegate, busy)
+                : new BusyTrackingListener(delegate, busy));
+
+        Gauge.builder("moodle.rabbit.listener.consumers", container, SimpleMessageListenerContainer::getActiveConsumerCount)
+                .description("Active consumers of the listener container")
+                .tag("listener", listener)
+                .tag("factory", name)
+                .register(meterRegistry);
+        Gauge.builder("moodle.rabbit.listener.busy", busy, AtomicInteger::get)
+                .description("Consumers of the listener container handling a message")
+                .tag("listener", listener)
+                .tag("factory", name)
+                .register(meterRegistry);
+        Gauge.builder("moodle.rabbit.listener.utilisation", container,
+                        c -> c.getActiveConsumerCount() == 0 ? 0 : (double) busy.get() / c.getActiveConsumerCount())
+                .description("Busy consumers over active consumers of the listener container")
+                .tag("listener", listener)
+                .tag("factory", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Conta os consumidores ocupados em volta do listener original
+     */
+    private static class BusyTrackingListener implements ChannelAwareMessageListener {
+
+        protected final Object delegate;
+        protected final AtomicInteger busy;
+
+        private BusyTrackingListener(Object delegate, AtomicInteger busy) {
+            this.delegate = delegate;
+            this.busy = busy;
+        }
+
+        @Override
+        public void onMessage(Message message, Channel channel) throws Exception {
+            busy.incrementAndGet();
+            try {
+                if (delegate instanceof ChannelAwareMessageListener channelAware) {
+                    channelAware.onMessage(message, channel);
+                } else {
+                    ((MessageListener) delegate).onMessage(message);
+                }
+            } finally {
+                busy.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void onMessageBatch(List<Message> messages, Channel channel) {
+            busy.incrementAndGet();
+            try {
+                if (delegate instanceof ChannelAwareMessageListener channelAware) {
+                    channelAware.onMessageBatch(messages, channel);
+                } else {
+                    ((MessageListener) delegate).onMessageBatch(messages);
+                }
+            } finally {
+                busy.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Versão para listeners em lote (consumerBatchEnabled exige um listener de lote)
+     */
+    private static final class BatchBusyTrackingListener extends BusyTrackingListener
+            implements ChannelAwareBatchMessageListener {
+
+        private BatchBusyTrackingListener(Object delegate, AtomicInteger busy) {
+            super(delegate, busy);
+        }
+    }
+}
@@ -1,15 +1,43 @@
 package com.example.demo.config;
 
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class MoodleRabbitMqConfig {
 
     // Queue name para criar cursos no Moodle
     public static final String MOODLE_CREATE_COURSE_QUEUE = "moodle-create-course-queues";
 
+    @Value("${app.rabbitmq.exchange}")
+    private String exchange;
+
+    @Value("${app.rabbitmq.queue.syncCourse}")
+    private String syncCourseQueue;
+
+    @Value("${app.rabbitmq.queue.syncCourseInteractive}")
+    private String syncCourseInteractiveQueue;
+
+    @Value("${app.rabbitmq.dead-letter.exchange}")
+    private String deadLetterExchange;
+
+    @Value("${app.rabbitmq.retry.delays-ms}")
+    private List<Long> retryDelays;
+
+    @Value("${app.rabbitmq.parking-lot.queue}")
+    private String parkingLotQueue;
+
     /**
      * Criar a Queue para solicitações de criação de curso no Moodle
      */
@@ -17,4 +45,83 @@ public class MoodleRabbitMqConfig {
     public Queue moodleCreateCourseQueue() {
         return new Queue(MOODLE_CREATE_COURSE_QUEUE, true);
     }
+
+    /**
+     * Exchange direct das mensagens do Moodle (routing key = nome da fila)
+     */
+    @Bean
+    public DirectExchange moodleExchange() {
+        return new DirectExchange(exchange, true, false);
+    }
+
+    /**
+     * Via bulk: sincronizações em massa (carga de início de semestre)
+     */
+    @Bean
+    public Queue moodleSyncCourseQueue() {
+        return new Queue(syncCourseQueue, true);
+    }
+
+    /**
+     * Via interativa: alterações pequenas (um aluno, um professor) que não devem esperar
+     * atrás de uma carga em massa; tem listener e estágios próprios
+     */
+    @Bean
+    public Queue moodleSyncCourseInteractiveQueue() {
+        return new Queue(syncCourseInteractiveQueue, true);
+    }
+
+    @Bean
+    public Binding moodleSyncCourseBinding() {
+        return BindingBuilder.bind(moodleSyncCourseQueue()).to(moodleExchange()).with(syncCourseQueue);
+    }
+
+    @Bean
+    public Binding moodleSyncCourseInteractiveBinding() {
+        return BindingBuilder.bind(moodleSyncCourseInteractiveQueue()).to(moodleExchange())
+                .with(syncCourseInteractiveQueue);
+    }
+
+    /**
+     * Dead-letter exchange (moodle.dlx) com, para cada fila consumida em ack manual, uma
+     * fila TTL por atraso de retry, que devolve a mensagem à fila original quando expira,
+     * e a fila .dlq das mensagens ilegíveis; as que esgotam os retries vão para o parking lot.
+     * As filas principais não mudam de argumentos (redeclará-las com x-dead-letter-exchange
+     * falharia): é o listener que publica aqui.
+     */
+    @Bean
+    public Declarables moodleDeadLetters() {
+        DirectExchange dlx = new DirectExchange(deadLetterExchange, true, false);
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(dlx);
+        for (String queue : List.of(MOODLE_CREATE_COURSE_QUEUE, syncCourseQueue, syncCourseInteractiveQueue)) {
+            for (long delay : retryDelays) {
+                // O atraso faz parte do nome: mudar os atrasos cria filas novas em vez de
+                // falhar a redeclaração com outro x-message-ttl
+                Queue retry = QueueBuilder.durable(retryQueue(queue, delay))
+                        .ttl((int) delay)
+                        .deadLetterExchange("")
+                        .deadLetterRoutingKey(queue)
+                        .build();
+                declarables.add(retry);
+                declarables.add(BindingBuilder.bind(retry).to(dlx).with(retry.getName()));
+            }
+            Queue dlq = QueueBuilder.durable(deadLetterQueue(queue)).build();
+            declarables.add(dlq);
+            declarables.add(BindingBuilder.bind(dlq).to(dlx).with(dlq.getName()));
+        }
+        // Parking lot partilhado; o cabeçalho x-original-queue diz para onde repor cada mensagem
+        Queue parkingLot = QueueBuilder.durable(parkingLotQueue).build();
+        declarables.add(parkingLot);
+        declarables.add(BindingBuilder.bind(parkingLot).to(dlx).with(parkingLot.getName()));
+        return new Declarables(declarables);
+    }
+
+    public static String retryQueue(String queue, long delayMs) {
+        return queue + ".retry." + delayMs + "ms";
+    }
+
+    public static String deadLetterQueue(String queue) {
+        return queue + ".dlq";
+    }
 }
@@ -0,0 +1,62 @@
+package com.example.demo.config;
+
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.CustomExchange;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filas particionadas da sincronização de cursos: um exchange x-consistent-hash distribui
+ * as mensagens pelo groupId (routing key) por N filas, cada uma consumida por um único
+ * consumidor ativo (x-single-active-consumer), também entre várias instâncias da aplicação.
+ * Requer o plugin rabbitmq_consistent_hash_exchange no broker.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "app.rabbitmq.partitions", name = "enabled", havingValue = "true")
+public class MoodleSyncPartitionConfig {
+
+    public static final String CONSISTENT_HASH_EXCHANGE = "x-consistent-hash";
+
+    @Value("${app.rabbitmq.partitions.exchange}")
+    private String exchange;
+
+    @Value("${app.rabbitmq.partitions.queue-prefix}")
+    private String queuePrefix;
+
+    // Alterar o número de partições muda o anel de hash: esvaziar as filas antes
+    @Value("${app.rabbitmq.partitions.count}")
+    private int count;
+
+    /**
+     * Exchange, filas e bindings das partições (peso 1 por fila)
+     */
+    @Bean
+    public Declarables moodleSyncPartitions() {
+        CustomExchange partitionExchange = new CustomExchange(exchange, CONSISTENT_HASH_EXCHANGE, true, false);
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(partitionExchange);
+        for (int partition = 0; partition < count; partition++) {
+            Queue queue = QueueBuilder.durable(partitionQueue(queuePrefix, partition))
+                    .singleActiveConsumer()
+                    .build();
+            Binding binding = BindingBuilder.bind(queue).to(partitionExchange).with("1").noargs();
+            declarables.add(queue);
+            declarables.add(binding);
+        }
+        return new Declarables(declarables);
+    }
+
+    public static String partitionQueue(String queuePrefix, int partition) {
+        return queuePrefix + "." + partition;
+    }
+}
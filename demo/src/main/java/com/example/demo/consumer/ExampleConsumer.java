@@ -19,7 +19,7 @@ public class ExampleConsumer {
     /**
      * Consumer que escuta a fila de exemplo e encaminha para a rota Camel
      */
-    @RabbitListener(queues = RabbitMqExampleConfig.QUEUE_NAME)
+    @RabbitListener(queues = RabbitMqExampleConfig.QUEUE_NAME, containerFactory = "exampleListenerFactory")
     public void receiveMessage(String message) {
         log.info("[ExampleConsumer] Mensagem recebida da fila '{}': {}",
                 RabbitMqExampleConfig.QUEUE_NAME, message);
@@ -0,0 +1,137 @@
+package com.example.demo.consumer;
+
+import com.example.demo.config.MoodleListenerLimits;
+import com.example.demo.services.MoodleClient;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pára os listeners RabbitMQ que chamam o Moodle enquanto algum circuito do Moodle está aberto,
+ * para as mensagens ficarem na fila em vez de falharem uma a uma.
+ * Em HALF_OPEN cada listener volta só com um consumidor e prefetch 1, o suficiente para as
+ * chamadas de teste do circuito; os listeners em lote ficam parados. Só com todos os circuitos
+ * CLOSED os listeners retomam os consumidores e o prefetch configurados.
+ */
+@Component
+public class MoodleCircuitConsumerPause {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleCircuitConsumerPause.class);
+
+    @Value("${app.moodle.circuit-breaker.paused-listeners:}")
+    private List<String> listenerIds;
+
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final MoodleListenerLimits listenerLimits;
+    private final Set<String> openCircuits = ConcurrentHashMap.newKeySet();
+    private final Set<String> halfOpenCircuits = ConcurrentHashMap.newKeySet();
+
+    // stop() espera pelas mensagens em curso; nunca corre na thread do listener nem do cliente HTTP
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "moodle-circuit-pause"));
+
+    private enum Mode {
+        RUNNING, PROBING, PAUSED
+    }
+
+    private Mode mode = Mode.RUNNING;
+
+    public MoodleCircuitConsumerPause(CircuitBreakerRegistry circuitBreakerRegistry,
+            RabbitListenerEndpointRegistry listenerRegistry, MoodleListenerLimits listenerLimits) {
+        this.listenerRegistry = listenerRegistry;
+        this.listenerLimits = listenerLimits;
+        circuitBreakerRegistry.getAllCircuitBreakers().forEach(this::watch);
+        circuitBreakerRegistry.getEventPublisher().onEntryAdded(event -> watch(event.getAddedEntry()));
+    }
+
+    private void watch(CircuitBreaker circuitBreaker) {
+        if (!circuitBreaker.getName().startsWith(MoodleClient.CIRCUIT_PREFIX)) {
+            return;
+        }
+        circuitBreaker.getEventPublisher().onStateTransition(event -> {
+            CircuitBreaker.State state = event.getStateTransition().getToState();
+            log.warn("[MoodleCircuitConsumerPause] Circuito {} -> {}", circuitBreaker.getName(), state);
+            openCircuits.remove(circuitBreaker.getName());
+            halfOpenCircuits.remove(circuitBreaker.getName());
+            if (state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN) {
+                openCircuits.add(circuitBreaker.getName());
+            } else if (state == CircuitBreaker.State.HALF_OPEN) {
+                halfOpenCircuits.add(circuitBreaker.getName());
+            }
+            executor.execute(this::apply);
+        });
+    }
+
+    private void apply() {
+        Mode target = !openCircuits.isEmpty() ? Mode.PAUSED
+                : !halfOpenCircuits.isEmpty() ? Mode.PROBING
+                : Mode.RUNNING;
+        if (target == mode) {
+            return;
+        }
+        for (String id : listenerRegistry.getListenerContainerIds()) {
+            if (matches(id)) {
+                apply(id, listenerRegistry.getListenerContainer(id), target);
+            }
+        }
+        mode = target;
+        switch (target) {
+            case PAUSED -> log.warn("[MoodleCircuitConsumerPause] Listeners {} parados, circuitos abertos: {}",
+                    listenerIds, openCircuits);
+            case PROBING -> log.info("[MoodleCircuitConsumerPause] Listeners {} com um consumidor, circuitos em teste: {}",
+                    listenerIds, halfOpenCircuits);
+            case RUNNING -> log.info("[MoodleCircuitConsumerPause] Listeners {} retomados", listenerIds);
+        }
+    }
+
+    private void apply(String id, MessageListenerContainer container, Mode target) {
+        // stop() espera pelas mensagens em curso, por isso os valores mudam com o container parado
+        container.stop();
+        if (!(container instanceof SimpleMessageListenerContainer simple)) {
+            if (target == Mode.RUNNING) {
+                container.start();
+            }
+            return;
+        }
+        if (target == Mode.PROBING) {
+            if (!simple.isConsumerBatchEnabled()) {
+                listenerLimits.reduce(simple);
+                simple.start();
+            }
+        } else if (target == Mode.RUNNING) {
+            listenerLimits.restore(id, simple);
+            simple.start();
+        }
+    }
+
+    /**
+     * Id listado, ou prefixo terminado em * (listeners registados por partição)
+     */
+    private boolean matches(String id) {
+        for (String listenerId : listenerIds) {
+            if (listenerId.endsWith("*") ? id.startsWith(listenerId.substring(0, listenerId.length() - 1))
+                    : listenerId.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
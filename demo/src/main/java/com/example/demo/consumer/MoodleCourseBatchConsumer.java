@@ -0,0 +1,136 @@
+package com.example.demo.consumer;
+
+import com.example.demo.bens.MoodleCourse;
+import com.example.demo.bens.MoodleCourseRequest;
+import com.example.demo.config.MoodleRabbitMqConfig;
+import com.example.demo.producer.MoodleDeadLetterProducer;
+import com.example.demo.services.MoodleService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Modo em lote da fila moodle-create-course-queues: junta os cursos de várias mensagens
+ * nos mesmos pedidos core_course_create_courses e confirma cada mensagem pelo resultado
+ * dos seus próprios cursos. Uma mensagem com um erro transitório (rede, Moodle
+ * indisponível) tem um retry com atraso; erros do Moodle ou de validação não se repetem
+ * e uma mensagem ilegível vai para a .dlq.
+ * Os cursos já criados de uma mensagem reenviada falham com shortnametaken e não se duplicam.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.rabbitmq.listeners.create-course.batch", name = "enabled", havingValue = "true")
+public class MoodleCourseBatchConsumer {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleCourseBatchConsumer.class);
+
+    private final MoodleService moodleService;
+    private final ObjectMapper objectMapper;
+    private final MoodleDeadLetterProducer deadLetterProducer;
+
+    public MoodleCourseBatchConsumer(MoodleService moodleService, ObjectMapper objectMapper,
+            MoodleDeadLetterProducer deadLetterProducer) {
+        this.moodleService = moodleService;
+        this.objectMapper = objectMapper;
+        this.deadLetterProducer = deadLetterProducer;
+    }
+
+    @RabbitListener(id = "moodleCreateCourseBatchListener", queues = "moodle-create-course-queues",
+            containerFactory = "createCourseBatchListenerFactory")
+    public void processCourseCreationBatch(List<Message> messages, Channel channel) {
+        log.info("[MoodleCourseBatchConsumer] Recebido lote de {} mensagens", messages.size());
+
+        List<MoodleCourse> validCourses = new ArrayList<>();
+        // Para cada curso válido, a mensagem de onde veio
+        List<Integer> owners = new ArrayList<>();
+        List<List<Map<String, Object>>> results = new ArrayList<>();
+        boolean[] readable = new boolean[messages.size()];
+        String[] errors = new String[messages.size()];
+        String[] errorTypes = new String[messages.size()];
+
+        for (int m = 0; m < messages.size(); m++) {
+            List<Map<String, Object>> messageResults = new ArrayList<>();
+            results.add(messageResults);
+            MoodleCourseRequest courseRequest;
+            try {
+                courseRequest = objectMapper.readValue(messages.get(m).getBody(), MoodleCourseRequest.class);
+            } catch (Exception e) {
+                log.error("[MoodleCourseBatchConsumer] Mensagem inválida: {}", e.getMessage());
+                errors[m] = "Invalid message: " + e.getMessage();
+                errorTypes[m] = "InvalidMessage";
+                continue;
+            }
+            readable[m] = true;
+            if (courseRequest == null || courseRequest.getCourses() == null) {
+                continue;
+            }
+            for (MoodleCourse course : courseRequest.getCourses()) {
+                try {
+                    MoodleCourseQueueConsumer.validateCourse(course);
+                    validCourses.add(course);
+                    owners.add(m);
+                } catch (IllegalArgumentException e) {
+                    log.error("[MoodleCourseBatchConsumer] Curso inválido {}: {}", course.getFullname(), e.getMessage());
+                    Map<String, Object> courseResult = new HashMap<>();
+                    courseResult.put("course", course.getFullname());
+                    courseResult.put("status", "ERROR");
+                    courseResult.put("error", e.getMessage());
+                    messageResults.add(courseResult);
+                }
+            }
+        }
+
+        boolean[] retry = new boolean[messages.size()];
+        String queue = MoodleRabbitMqConfig.MOODLE_CREATE_COURSE_QUEUE;
+        if (!validCourses.isEmpty()) {
+            try {
+                // Cursos de todas as mensagens nos mesmos lotes (app.moodle.batch.course-size)
+                List<Map<String, Object>> created = moodleService.createCourses(validCourses);
+                for (int i = 0; i < created.size(); i++) {
+                    Map<String, Object> courseResult = created.get(i);
+                    results.get(owners.get(i)).add(courseResult);
+                    if (courseResult == null || Boolean.TRUE.equals(courseResult.get("retryable"))) {
+                        retry[owners.get(i)] = true;
+                        errors[owners.get(i)] = courseResult != null ? String.valueOf(courseResult.get("error")) : null;
+                        errorTypes[owners.get(i)] = courseResult != null ? String.valueOf(courseResult.get("errorType")) : null;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("[MoodleCourseBatchConsumer] Erro ao criar os cursos do lote: {}", e.getMessage(), e);
+                owners.forEach(m -> {
+                    retry[m] = true;
+                    errors[m] = e.getMessage();
+                    errorTypes[m] = e.getClass().getSimpleName();
+                });
+            }
+        }
+
+        int acked = 0;
+        int retried = 0;
+        int deadLettered = 0;
+        for (int m = 0; m < messages.size(); m++) {
+            if (!readable[m]) {
+                deadLetterProducer.deadLetter(messages.get(m), channel, queue, errorTypes[m], errors[m]);
+                deadLettered++;
+            } else if (retry[m]) {
+                deadLetterProducer.retry(messages.get(m), channel, queue, errorTypes[m], errors[m]);
+                retried++;
+            } else {
+                deadLetterProducer.ack(messages.get(m), channel);
+                acked++;
+            }
+            log.debug("[MoodleCourseBatchConsumer] Mensagem {}: {}", m, results.get(m));
+        }
+        log.info("[MoodleCourseBatchConsumer] Lote concluído: {} cursos, {} confirmadas, {} com retry, {} para a .dlq",
+                validCourses.size(), acked, retried, deadLettered);
+    }
+}
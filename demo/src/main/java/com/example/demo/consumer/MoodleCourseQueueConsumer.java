@@ -1,24 +1,32 @@
 package com.example.demo.consumer;
 
 import com.example.demo.bens.MoodleCourseRequest;
-import com.example.demo.producer.MoodleCourseProducer;
+import com.example.demo.config.MoodleRabbitMqConfig;
+import com.example.demo.producer.MoodleDeadLetterProducer;
 import com.example.demo.services.MoodleService;
-import com.example.demo.bens.CourseRequest;
 import com.example.demo.bens.MoodleCourse;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @Component
+@ConditionalOnProperty(prefix = "app.rabbitmq.listeners.create-course.batch", name = "enabled",
+        havingValue = "false", matchIfMissing = true)
 public class MoodleCourseQueueConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(MoodleCourseQueueConsumer.class);
@@ -29,67 +37,70 @@ public class MoodleCourseQueueConsumer {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private MoodleDeadLetterProducer deadLetterProducer;
+
     /**
      * Listener para consumir mensagens da fila moodle-create-course-queues
-     * Processa a criação de cursos no Moodle
+     * Processa a criação de cursos no Moodle. A mensagem só é confirmada depois do
+     * trabalho no Moodle; um erro transitório agenda um retry com atraso, uma mensagem
+     * ilegível vai diretamente para a .dlq
      */
-    @RabbitListener(queues = "moodle-create-course-queues")
-    public void processCourseCreationRequest(String message) {
+    @RabbitListener(id = "moodleCreateCourseListener", queues = "moodle-create-course-queues",
+            containerFactory = "createCourseListenerFactory", ackMode = "MANUAL")
+    public void processCourseCreationRequest(Message amqpMessage, Channel channel) {
+        String queue = MoodleRabbitMqConfig.MOODLE_CREATE_COURSE_QUEUE;
+        String message = new String(amqpMessage.getBody(), StandardCharsets.UTF_8);
         try {
-            log.info("[MoodleCourseQueueConsumer] Recebida mensagem da fila: {}", message);
+            log.info("[MoodleCourseQueueConsumer] Recebida mensagem da fila (tentativa {}): {}",
+                    MoodleDeadLetterProducer.retryCount(amqpMessage) + 1, message);
 
             // Desserializar a mensagem
-            MoodleCourseRequest courseRequest = objectMapper.readValue(message, MoodleCourseRequest.class);
+            MoodleCourseRequest courseRequest;
+            try {
+                courseRequest = objectMapper.readValue(message, MoodleCourseRequest.class);
+            } catch (Exception e) {
+                deadLetterProducer.deadLetter(amqpMessage, channel, queue, "InvalidMessage",
+                        "Invalid message: " + e.getMessage());
+                return;
+            }
 
             if (courseRequest == null || courseRequest.getCourses() == null || courseRequest.getCourses().isEmpty()) {
                 log.warn("[MoodleCourseQueueConsumer] Nenhum curso fornecido na solicitação");
+                deadLetterProducer.ack(amqpMessage, channel);
                 return;
             }
 
             log.info("[MoodleCourseQueueConsumer] Processando {} cursos", courseRequest.getCourses().size());
 
-            List<Map<String, Object>> results = new ArrayList<>();
+            List<Map<String, Object>> results = new ArrayList<>(
+                    Collections.nCopies(courseRequest.getCourses().size(), null));
+            List<MoodleCourse> validCourses = new ArrayList<>();
+            List<Integer> validIndexes = new ArrayList<>();
 
-            // Processar cada curso
-            for (MoodleCourse course : courseRequest.getCourses()) {
+            // Validar cada curso; os inválidos não são enviados ao Moodle
+            for (int i = 0; i < courseRequest.getCourses().size(); i++) {
+                MoodleCourse course = courseRequest.getCourses().get(i);
                 try {
-                    // Validar campos obrigatórios
-                    if (course.getFullname() == null || course.getFullname().isEmpty()) {
-                        throw new IllegalArgumentException("Course fullname is required");
-                    }
-                    if (course.getShortname() == null || course.getShortname().isEmpty()) {
-                        throw new IllegalArgumentException("Course shortname is required");
-                    }
-                    if (course.getCategoryid() == null) {
-                        throw new IllegalArgumentException("Course categoryid is required");
-                    }
-
-                    log.info("[MoodleCourseQueueConsumer] Criando curso: {} ({})",
-                            course.getFullname(), course.getShortname());
-
-                    // Converter MoodleCourse para CourseRequest
-                    CourseRequest request = convertMoodleCourseToCourseRequest(course);
-
-                    // Criar o curso no Moodle
-                    Map<String, Object> response = moodleService.createCourse(request);
-
-                    Map<String, Object> courseResult = new HashMap<>();
-                    courseResult.put("course", course.getFullname());
-                    courseResult.put("status", "SUCCESS");
-                    courseResult.put("response", response);
-                    results.add(courseResult);
-
-                    log.info("[MoodleCourseQueueConsumer] Curso criado com sucesso: {}", course.getFullname());
-
-                } catch (Exception e) {
-                    log.error("[MoodleCourseQueueConsumer] Erro ao criar curso {}: {}",
-                            course.getFullname(), e.getMessage(), e);
+                    validateCourse(course);
+                    validCourses.add(course);
+                    validIndexes.add(i);
+                } catch (IllegalArgumentException e) {
+                    log.error("[MoodleCourseQueueConsumer] Curso inválido {}: {}", course.getFullname(), e.getMessage());
 
                     Map<String, Object> courseResult = new HashMap<>();
                     courseResult.put("course", course.getFullname());
                     courseResult.put("status", "ERROR");
                     courseResult.put("error", e.getMessage());
-                    results.add(courseResult);
+                    results.set(i, courseResult);
+                }
+            }
+
+            // Criar os cursos válidos em lote (core_course_create_courses com vários índices)
+            if (!validCourses.isEmpty()) {
+                List<Map<String, Object>> created = moodleService.createCourses(validCourses);
+                for (int i = 0; i < created.size(); i++) {
+                    results.set(validIndexes.get(i), created.get(i));
                 }
             }
 
@@ -101,20 +112,35 @@ public class MoodleCourseQueueConsumer {
 
             log.info("[MoodleCourseQueueConsumer] Processamento concluído: {}", finalResult);
 
+            // Erros de transporte repetem a mensagem; os cursos já criados falham depois com shortnametaken
+            Optional<Map<String, Object>> retryable = results.stream()
+                    .filter(r -> r != null && Boolean.TRUE.equals(r.get("retryable")))
+                    .findFirst();
+            if (retryable.isPresent()) {
+                deadLetterProducer.retry(amqpMessage, channel, queue,
+                        String.valueOf(retryable.get().get("errorType")), String.valueOf(retryable.get().get("error")));
+            } else {
+                deadLetterProducer.ack(amqpMessage, channel);
+            }
+
         } catch (Exception e) {
             log.error("[MoodleCourseQueueConsumer] Erro ao processar mensagem: {}", e.getMessage(), e);
+            deadLetterProducer.retry(amqpMessage, channel, queue, e.getClass().getSimpleName(), e.getMessage());
         }
     }
 
     /**
-     * Converter MoodleCourse para CourseRequest para compatibilidade com
-     * MoodleService
+     * Validar campos obrigatórios do curso
      */
-    private CourseRequest convertMoodleCourseToCourseRequest(MoodleCourse moodleCourse) {
-        CourseRequest courseRequest = new CourseRequest();
-        courseRequest.setFullname(moodleCourse.getFullname());
-        courseRequest.setShortname(moodleCourse.getShortname());
-        courseRequest.setCategoryid(moodleCourse.getCategoryid());
-        return courseRequest;
+    static void validateCourse(MoodleCourse course) {
+        if (course.getFullname() == null || course.getFullname().isEmpty()) {
+            throw new IllegalArgumentException("Course fullname is required");
+        }
+        if (course.getShortname() == null || course.getShortname().isEmpty()) {
+            throw new IllegalArgumentException("Course shortname is required");
+        }
+        if (course.getCategoryid() == null) {
+            throw new IllegalArgumentException("Course categoryid is required");
+        }
     }
 }
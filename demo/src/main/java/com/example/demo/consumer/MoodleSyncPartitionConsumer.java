@@ -0,0 +1,93 @@
+package com.example.demo.consumer;
+
+import com.example.demo.config.MoodleSyncPartitionConfig;
+import com.example.demo.routes.MoodleCourseRoute;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Consome as partições da sincronização de cursos: um listener com um único consumidor
+ * por partição, para as mensagens do mesmo grupo serem aplicadas pela ordem em que
+ * chegaram, enquanto grupos de partições diferentes correm em paralelo.
+ * Cada instância consome as partições de app.rabbitmq.partitions.assigned (todas, por
+ * omissão); com single-active-consumer, as outras instâncias ficam de reserva.
+ * As falhas seguem os retries da fila de sincronização, de onde voltam a ser particionadas.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.rabbitmq", name = {"enabled", "partitions.enabled"}, havingValue = "true")
+public class MoodleSyncPartitionConsumer implements RabbitListenerConfigurer {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleSyncPartitionConsumer.class);
+
+    // Ids dos listeners: moodleSyncPartitionListener-<partição>
+    public static final String LISTENER_PREFIX = "moodleSyncPartitionListener-";
+
+    private final RabbitMqConsumer rabbitMqConsumer;
+    private final MeterRegistry meterRegistry;
+    private final SimpleRabbitListenerContainerFactory listenerFactory;
+
+    @Value("${app.rabbitmq.queue.syncCourse}")
+    private String syncCourseQueue;
+
+    @Value("${app.rabbitmq.partitions.queue-prefix}")
+    private String queuePrefix;
+
+    @Value("${app.rabbitmq.partitions.count}")
+    private int count;
+
+    @Value("${app.rabbitmq.partitions.assigned:}")
+    private List<Integer> assigned;
+
+    public MoodleSyncPartitionConsumer(RabbitMqConsumer rabbitMqConsumer, MeterRegistry meterRegistry,
+            @Qualifier("syncPartitionListenerFactory") SimpleRabbitListenerContainerFactory listenerFactory) {
+        this.rabbitMqConsumer = rabbitMqConsumer;
+        this.meterRegistry = meterRegistry;
+        this.listenerFactory = listenerFactory;
+    }
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        List<Integer> partitions = assigned == null || assigned.isEmpty()
+                ? IntStream.range(0, count).boxed().toList()
+                : assigned;
+        for (int partition : partitions) {
+            if (partition < 0 || partition >= count) {
+                log.warn("[MoodleSyncPartitionConsumer] Partição {} fora de 0..{}, ignorada", partition, count - 1);
+                continue;
+            }
+            Counter messages = Counter.builder("moodle.sync.partition.messages")
+                    .description("Sync messages consumed per partition")
+                    .tag("partition", String.valueOf(partition))
+                    .register(meterRegistry);
+
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId(LISTENER_PREFIX + partition);
+            endpoint.setQueueNames(MoodleSyncPartitionConfig.partitionQueue(queuePrefix, partition));
+            int current = partition;
+            endpoint.setAckMode(AcknowledgeMode.MANUAL);
+            endpoint.setMessageListener((ChannelAwareMessageListener) (message, channel) -> {
+                messages.increment();
+                log.info("[MoodleSyncPartitionConsumer] Received sync course message on partition {}", current);
+                rabbitMqConsumer.processSyncCourse(message, channel, syncCourseQueue, MoodleCourseRoute.BULK_LANE);
+            });
+            // A fábrica tem um único consumidor por fila: é o que garante a ordem dentro do grupo
+            registrar.registerEndpoint(endpoint, listenerFactory);
+        }
+        log.info("[MoodleSyncPartitionConsumer] Listeners registados para as partições {}", partitions);
+    }
+}
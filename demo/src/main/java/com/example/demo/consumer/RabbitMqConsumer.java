@@ -1,25 +1,56 @@
 package com.example.demo.consumer;
 
+import com.example.demo.bens.CourseSyncRequest;
+import com.example.demo.producer.MoodleDeadLetterProducer;
+import com.example.demo.producer.MoodleSyncPartitionRouter;
+import com.example.demo.routes.MoodleCourseRoute;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.camel.ProducerTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
 @Component
 @ConditionalOnProperty(prefix = "app.rabbitmq", name = "enabled", havingValue = "true", matchIfMissing = false)
 public class RabbitMqConsumer {
 
     private final ProducerTemplate producerTemplate;
+    private final ObjectMapper objectMapper;
+    private final MoodleDeadLetterProducer deadLetterProducer;
+    // Presente só com app.rabbitmq.partitions.enabled=true
+    private final MoodleSyncPartitionRouter partitionRouter;
     private static final Logger log = LoggerFactory.getLogger(RabbitMqConsumer.class);
 
-    public RabbitMqConsumer(ProducerTemplate producerTemplate) {
+    @Value("${app.rabbitmq.queue.syncCourse}")
+    private String syncCourseQueue;
+
+    @Value("${app.rabbitmq.queue.syncCourseInteractive}")
+    private String syncCourseInteractiveQueue;
+
+    public RabbitMqConsumer(ProducerTemplate producerTemplate, ObjectMapper objectMapper,
+            MoodleDeadLetterProducer deadLetterProducer,
+            ObjectProvider<MoodleSyncPartitionRouter> partitionRouter) {
         this.producerTemplate = producerTemplate;
+        this.objectMapper = objectMapper;
+        this.deadLetterProducer = deadLetterProducer;
+        this.partitionRouter = partitionRouter.getIfAvailable();
     }
 
-    @RabbitListener(queues = "${app.rabbitmq.queue.createCourse}")
+    @RabbitListener(id = "moodleCreateCourseRawListener", queues = "${app.rabbitmq.queue.createCourse}",
+            containerFactory = "createCourseListenerFactory")
     public void receive(String body) {
         // Forward raw JSON body to Camel route
         producerTemplate.sendBody("direct:createCourse", body);
@@ -28,17 +59,119 @@ public class RabbitMqConsumer {
     /**
      * Escuta mensagens da fila de sincronização de cursos
      */
-    @RabbitListener(queues = "${app.rabbitmq.queue.syncCourse}")
-    public void receiveSyncCourse(String message) {
+    @RabbitListener(id = "moodleSyncCourseListener", queues = "${app.rabbitmq.queue.syncCourse}",
+            containerFactory = "syncListenerFactory", ackMode = "MANUAL")
+    public void receiveSyncCourse(Message delivered, Channel channel) {
+        Message amqpMessage = stamped(delivered);
+        String message = new String(amqpMessage.getBody(), StandardCharsets.UTF_8);
         log.info("[RabbitMqConsumer] Received sync course message from RabbitMQ");
         log.info("[RabbitMqConsumer] Message: {}", message);
 
+        if (partitionRouter != null) {
+            try {
+                // Modo particionado: a mensagem segue para a partição do seu grupo
+                String key = partitionRouter.publish(message, sourceTime(amqpMessage));
+                log.info("[RabbitMqConsumer] Message routed to sync partition (key {})", key);
+                deadLetterProducer.ack(amqpMessage, channel);
+            } catch (Exception e) {
+                log.error("[RabbitMqConsumer] Error routing sync course message: {}", e.getMessage(), e);
+                deadLetterProducer.retry(amqpMessage, channel, syncCourseQueue, e.getClass().getSimpleName(),
+                        e.getMessage());
+            }
+            return;
+        }
+        processSyncCourse(amqpMessage, channel, syncCourseQueue, MoodleCourseRoute.BULK_LANE);
+    }
+
+    /**
+     * Escuta a fila interativa: a mesma sincronização, mas na via interativa, servida à
+     * frente das cargas em massa
+     */
+    @RabbitListener(id = "moodleSyncCourseInteractiveListener", queues = "${app.rabbitmq.queue.syncCourseInteractive}",
+            containerFactory = "syncInteractiveListenerFactory", ackMode = "MANUAL")
+    public void receiveInteractiveSyncCourse(Message amqpMessage, Channel channel) {
+        log.info("[RabbitMqConsumer] Received interactive sync course message from RabbitMQ");
+        processSyncCourse(amqpMessage, channel, syncCourseInteractiveQueue, MoodleCourseRoute.INTERACTIVE_LANE);
+    }
+
+    /**
+     * Aplica uma mensagem de sincronização e só depois a confirma. Uma sincronização falhada
+     * tem um retry com atraso (o checkpoint retoma-a onde parou); uma mensagem ilegível vai
+     * diretamente para a .dlq da fila
+     *
+     * @param queue fila cujos retries e .dlq recebem a mensagem
+     */
+    public void processSyncCourse(Message delivered, Channel channel, String queue, String lane) {
+        // Os retries e o parking lot guardam a hora de origem, para a verificação de ordem
+        Message amqpMessage = stamped(delivered);
+        String message = new String(amqpMessage.getBody(), StandardCharsets.UTF_8);
+        try {
+            objectMapper.readValue(message, CourseSyncRequest.class);
+        } catch (Exception e) {
+            deadLetterProducer.deadLetter(amqpMessage, channel, queue, "InvalidMessage",
+                    "Invalid message: " + e.getMessage());
+            return;
+        }
+
         try {
             // Encaminha a mensagem JSON para a rota Camel
-            producerTemplate.sendBody("direct:syncCourse", message);
-            log.info("[RabbitMqConsumer] Message sent to direct:syncCourse route");
+            String result = producerTemplate.requestBodyAndHeaders("direct:syncCourse", message,
+                    Map.of(MoodleCourseRoute.LANE_HEADER, lane,
+                            MoodleCourseRoute.SOURCE_TIME_HEADER, sourceTime(amqpMessage)),
+                    String.class);
+            log.info("[RabbitMqConsumer] Message processed by direct:syncCourse route ({} lane)", lane);
+
+            SyncFailure failure = syncFailure(result);
+            if (failure == null) {
+                deadLetterProducer.ack(amqpMessage, channel);
+            } else {
+                deadLetterProducer.retry(amqpMessage, channel, queue, failure.type(), failure.error());
+            }
         } catch (Exception e) {
             log.error("[RabbitMqConsumer] Error processing sync course message: {}", e.getMessage(), e);
+            deadLetterProducer.retry(amqpMessage, channel, queue, e.getClass().getSimpleName(), e.getMessage());
         }
     }
+
+    /**
+     * Cópia da mensagem com o cabeçalho x-source-time: o timestamp AMQP do publicador ou,
+     * sem ele, a hora da primeira receção; a entregue não muda
+     */
+    static Message stamped(Message amqpMessage) {
+        MessageProperties properties = amqpMessage.getMessageProperties();
+        if (properties.getHeader(MoodleDeadLetterProducer.SOURCE_TIME_HEADER) instanceof Number) {
+            return amqpMessage;
+        }
+        long sourceTime = properties.getTimestamp() != null
+                ? properties.getTimestamp().getTime()
+                : System.currentTimeMillis();
+        return MessageBuilder.fromClonedMessage(amqpMessage)
+                .setHeader(MoodleDeadLetterProducer.SOURCE_TIME_HEADER, sourceTime)
+                .build();
+    }
+
+    static long sourceTime(Message amqpMessage) {
+        return ((Number) amqpMessage.getMessageProperties().getHeader(MoodleDeadLetterProducer.SOURCE_TIME_HEADER))
+                .longValue();
+    }
+
+    /**
+     * Erro da sincronização, ou null quando foi aplicada (ou ignorada por não ter mudado)
+     */
+    private SyncFailure syncFailure(String result) {
+        try {
+            JsonNode node = objectMapper.readTree(result);
+            if (node.path("success").asBoolean(false) || node.path("skipped").asBoolean(false)) {
+                return null;
+            }
+            return new SyncFailure(node.path("errorType").asText("SyncFailed"),
+                    node.path("error").asText("Synchronization failed"));
+        } catch (Exception e) {
+            // Resposta do onException da rota, que não é JSON
+            return new SyncFailure("RouteError", result);
+        }
+    }
+
+    private record SyncFailure(String type, String error) {
+    }
 }
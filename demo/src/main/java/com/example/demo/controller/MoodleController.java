@@ -3,19 +3,27 @@ package com.example.demo.controller;
 import com.example.demo.bens.MoodleCourse;
 import com.example.demo.bens.MoodleCourseRequest;
 import com.example.demo.producer.MoodleCourseProducer;
+import com.example.demo.services.MoodleBulkSyncService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -28,6 +36,9 @@ public class MoodleController {
     @Autowired
     private MoodleCourseProducer moodleCourseProducer;
 
+    @Autowired
+    private MoodleBulkSyncService moodleBulkSyncService;
+
     /**
      * Endpoint para criar um novo curso no Moodle
      * Recebe os dados do curso e envia para a fila RabbitMQ para processamento
@@ -120,4 +131,55 @@ public class MoodleController {
             return ResponseEntity.status(500).body(response);
         }
     }
+
+    /**
+     * Sincronização em massa: recebe um ficheiro NDJSON (um CourseSyncRequest por linha),
+     * guarda-o em disco e processa-o em segundo plano
+     *
+     * @param body conteúdo NDJSON do pedido
+     * @return o job criado, com o progresso inicial
+     */
+    @PostMapping("/bulk-sync")
+    public ResponseEntity<?> bulkSync(InputStream body) {
+        try {
+            log.info("[MoodleController] Recebido ficheiro NDJSON para sincronização em massa");
+
+            // O ficheiro vai para disco, sem passar pela memória
+            Path file = Files.createTempFile("moodle-bulk-sync-", ".ndjson");
+            Files.copy(body, file, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("[MoodleController] Ficheiro recebido: {} bytes", Files.size(file));
+
+            MoodleBulkSyncService.Job job = moodleBulkSyncService.submit(file, true);
+            return ResponseEntity.accepted().body(job.toMap());
+        } catch (Exception e) {
+            log.error("[MoodleController] Erro ao iniciar sincronização em massa: {}", e.getMessage(), e);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "ERROR");
+            response.put("message", e.getMessage());
+            response.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
+
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * Progresso de um job de sincronização em massa
+     */
+    @GetMapping("/bulk-sync/{jobId}")
+    public ResponseEntity<?> bulkSyncStatus(@PathVariable String jobId) {
+        return moodleBulkSyncService.getJob(jobId)
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok(job.toMap()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Jobs de sincronização em massa, do mais recente para o mais antigo
+     */
+    @GetMapping("/bulk-sync")
+    public ResponseEntity<List<Map<String, Object>>> bulkSyncJobs() {
+        return ResponseEntity.ok(moodleBulkSyncService.getJobs().stream()
+                .map(MoodleBulkSyncService.Job::toMap)
+                .toList());
+    }
 }
@@ -0,0 +1,129 @@
+package com.example.demo.controller;
+
+import com.example.demo.services.MoodleParkingLotService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gestão do parking lot: mensagens que esgotaram os retries, para inspecionar e repor
+ * nas filas de origem depois de um incidente
+ */
+@RestController
+@RequestMapping("/api/rabbitmq/parking-lot")
+public class RabbitMqParkingLotController {
+
+    private static final Logger log = LoggerFactory.getLogger(RabbitMqParkingLotController.class);
+
+    @Autowired
+    private MoodleParkingLotService parkingLotService;
+
+    /**
+     * Inspeciona as mensagens estacionadas sem as consumir
+     *
+     * @param groupId   só as sincronizações deste grupo
+     * @param errorType só as que falharam com este tipo de erro (ex.: MoodleWebServiceException)
+     * @param queue     só as que vieram desta fila
+     * @param limit     número máximo de mensagens devolvidas
+     */
+    @GetMapping
+    public ResponseEntity<?> inspect(@RequestParam(required = false) String groupId,
+            @RequestParam(required = false) String errorType,
+            @RequestParam(required = false) String queue,
+            @RequestParam(defaultValue = "50") int limit) {
+        try {
+            log.info("[RabbitMqParkingLotController] Inspect parking lot (groupId={}, errorType={}, queue={})",
+                    groupId, errorType, queue);
+            Map<String, Object> response = parkingLotService.inspect(
+                    new MoodleParkingLotService.Filter(groupId, errorType, queue), Math.max(limit, 0));
+            response.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            // Um replay ou outra inspeção está a ler o parking lot
+            return error(409, e.getMessage());
+        } catch (Exception e) {
+            log.error("[RabbitMqParkingLotController] Inspect failed: {}", e.getMessage(), e);
+            return error(500, e.getMessage());
+        }
+    }
+
+    /**
+     * Repõe as mensagens filtradas nas filas de origem, em segundo plano e a ritmo controlado
+     *
+     * @param max           número máximo de mensagens a repor (0 = todas as que correspondem)
+     * @param ratePerSecond mensagens por segundo (por omissão app.rabbitmq.parking-lot.replay-rate)
+     * @return o job criado, com o progresso inicial
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<?> replay(@RequestParam(required = false) String groupId,
+            @RequestParam(required = false) String errorType,
+            @RequestParam(required = false) String queue,
+            @RequestParam(defaultValue = "0") long max,
+            @RequestParam(required = false) Double ratePerSecond) {
+        try {
+            log.info("[RabbitMqParkingLotController] Replay requested (groupId={}, errorType={}, queue={}, max={})",
+                    groupId, errorType, queue, max);
+            MoodleParkingLotService.ReplayJob job = parkingLotService.replay(
+                    new MoodleParkingLotService.Filter(groupId, errorType, queue), max, ratePerSecond);
+            return ResponseEntity.accepted().body(job.toMap());
+        } catch (IllegalStateException e) {
+            // Já existe um replay ou uma inspeção a decorrer
+            return error(409, e.getMessage());
+        } catch (Exception e) {
+            log.error("[RabbitMqParkingLotController] Replay failed: {}", e.getMessage(), e);
+            return error(500, e.getMessage());
+        }
+    }
+
+    /**
+     * Progresso de um replay
+     */
+    @GetMapping("/replay/{jobId}")
+    public ResponseEntity<?> replayStatus(@PathVariable String jobId) {
+        return parkingLotService.getJob(jobId)
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok(job.toMap()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Replays, do mais recente para o mais antigo
+     */
+    @GetMapping("/replay")
+    public ResponseEntity<List<Map<String, Object>>> replayJobs() {
+        return ResponseEntity.ok(parkingLotService.getJobs().stream()
+                .map(MoodleParkingLotService.ReplayJob::toMap)
+                .toList());
+    }
+
+    /**
+     * Pára um replay depois da mensagem atual; as restantes ficam no parking lot
+     */
+    @DeleteMapping("/replay/{jobId}")
+    public ResponseEntity<?> cancelReplay(@PathVariable String jobId) {
+        return parkingLotService.cancel(jobId)
+                .<ResponseEntity<?>>map(job -> ResponseEntity.ok(job.toMap()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private static ResponseEntity<?> error(int status, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "ERROR");
+        response.put("message", message);
+        response.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
+        return ResponseEntity.status(status).body(response);
+    }
+}
@@ -145,6 +145,11 @@ public class RabbitMqTestController {
                 put("POST /api/rabbitmq/health-check", "Envia mensagem de health check");
                 put("POST /api/rabbitmq/test-sync-course", "Teste de sincronização de curso");
                 put("POST /api/rabbitmq/test-create-course", "Teste de criação de curso");
+                put("GET /api/rabbitmq/parking-lot", "Inspeciona o parking lot (groupId, errorType, queue, limit)");
+                put("POST /api/rabbitmq/parking-lot/replay", "Repõe mensagens do parking lot a ritmo controlado");
+                put("GET /api/rabbitmq/parking-lot/replay", "Lista os replays, do mais recente para o mais antigo");
+                put("GET /api/rabbitmq/parking-lot/replay/{jobId}", "Progresso de um replay");
+                put("DELETE /api/rabbitmq/parking-lot/replay/{jobId}", "Pára um replay depois da mensagem atual");
             }
         });
         response.put("timestamp", LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME));
@@ -0,0 +1,140 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Último passo concluído de uma sincronização em curso, para que a mesma mensagem
+ * reentregue continue daí em vez de repetir as chamadas ao Moodle
+ */
+@Entity
+@Table(name = "moodle_sync_checkpoint")
+public class SyncCheckpoint {
+
+    /**
+     * Passos da sincronização, pela ordem em que são executados
+     */
+    public enum Step {
+        COURSE, USERS, ENROLMENTS, SECTIONS
+    }
+
+    @Id
+    @Column(name = "group_id", length = 100)
+    private String groupId;
+
+    // Hash do pedido; só uma mensagem com o mesmo conteúdo retoma o checkpoint
+    @Column(name = "content_hash", length = 64, nullable = false)
+    private String contentHash;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "step", length = 20, nullable = false)
+    private Step step;
+
+    @Column(name = "moodle_course_id")
+    private Integer moodleCourseId;
+
+    // JSON username -> id Moodle dos usuários provisionados
+    @Column(name = "user_ids", columnDefinition = "text")
+    private String userIds;
+
+    // JSON do resultado acumulado até este passo
+    @Column(name = "result", columnDefinition = "text")
+    private String result;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public SyncCheckpoint() {
+    }
+
+    public SyncCheckpoint(String groupId, String contentHash, Step step, Integer moodleCourseId,
+            String userIds, String result, Instant updatedAt) {
+        this.groupId = groupId;
+        this.contentHash = contentHash;
+        this.step = step;
+        this.moodleCourseId = moodleCourseId;
+        this.userIds = userIds;
+        this.result = result;
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * True when the given step was already completed
+     */
+    public boolean reached(Step other) {
+        return step != null && step.compareTo(other) >= 0;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Step getStep() {
+        return step;
+    }
+
+    public void setStep(Step step) {
+        this.step = step;
+    }
+
+    public Integer getMoodleCourseId() {
+        return moodleCourseId;
+    }
+
+    public void setMoodleCourseId(Integer moodleCourseId) {
+        this.moodleCourseId = moodleCourseId;
+    }
+
+    public String getUserIds() {
+        return userIds;
+    }
+
+    public void setUserIds(String userIds) {
+        this.userIds = userIds;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncCheckpoint{" +
+                "groupId='" + groupId + '\'' +
+                ", contentHash='" + contentHash + '\'' +
+                ", step=" + step +
+                ", moodleCourseId=" + moodleCourseId +
+                ", updatedAt=" + updatedAt +
+                '}';
+    }
+}
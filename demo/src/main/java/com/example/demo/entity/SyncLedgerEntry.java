@@ -0,0 +1,98 @@
+package com.example.demo.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * Última sincronização aplicada com sucesso a um grupo (turma): hash do conteúdo
+ * do CourseSyncRequest e o curso Moodle resultante
+ */
+@Entity
+@Table(name = "moodle_sync_ledger")
+public class SyncLedgerEntry {
+
+    @Id
+    @Column(name = "group_id", length = 100)
+    private String groupId;
+
+    // SHA-256 em hexadecimal do JSON canónico do pedido
+    @Column(name = "content_hash", length = 64, nullable = false)
+    private String contentHash;
+
+    @Column(name = "moodle_course_id")
+    private Integer moodleCourseId;
+
+    @Column(name = "applied_at", nullable = false)
+    private Instant appliedAt;
+
+    // Hora de origem do pedido aplicado (x-source-time); uma mensagem enviada antes já não se aplica
+    @Column(name = "received_at")
+    private Instant receivedAt;
+
+    public SyncLedgerEntry() {
+    }
+
+    public SyncLedgerEntry(String groupId, String contentHash, Integer moodleCourseId, Instant appliedAt,
+            Instant receivedAt) {
+        this.groupId = groupId;
+        this.contentHash = contentHash;
+        this.moodleCourseId = moodleCourseId;
+        this.appliedAt = appliedAt;
+        this.receivedAt = receivedAt;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Integer getMoodleCourseId() {
+        return moodleCourseId;
+    }
+
+    public void setMoodleCourseId(Integer moodleCourseId) {
+        this.moodleCourseId = moodleCourseId;
+    }
+
+    public Instant getAppliedAt() {
+        return appliedAt;
+    }
+
+    public void setAppliedAt(Instant appliedAt) {
+        this.appliedAt = appliedAt;
+    }
+
+    public Instant getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(Instant receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncLedgerEntry{" +
+                "groupId='" + groupId + '\'' +
+                ", contentHash='" + contentHash + '\'' +
+                ", moodleCourseId=" + moodleCourseId +
+                ", appliedAt=" + appliedAt +
+                ", receivedAt=" + receivedAt +
+                '}';
+    }
+}
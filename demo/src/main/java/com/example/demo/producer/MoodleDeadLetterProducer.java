@@ -0,0 +1,207 @@
+package com.example.demo.producer;
+
+import com.example.demo.config.MoodleRabbitMqConfig;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Settles messages of the manual-ack listeners. A failed message is published to the
+ * dead-letter exchange: to the next retry tier of its queue (a TTL queue that
+ * dead-letters it back to the queue once the delay expires), to the parking lot once
+ * the tiers are exhausted, or to the queue's .dlq when it cannot be processed at all.
+ * The original is acked only after the broker confirmed the copy, so a message is
+ * never lost in between. When the copy cannot be published even after a few delayed
+ * attempts, the original is requeued: the backoff already spaced the retries, and an
+ * unacked message would hold a prefetch slot until its channel closes.
+ */
+@Component
+public class MoodleDeadLetterProducer {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleDeadLetterProducer.class);
+
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String ERROR_HEADER = "x-last-error";
+    public static final String ERROR_TYPE_HEADER = "x-error-type";
+    public static final String ORIGINAL_QUEUE_HEADER = "x-original-queue";
+    public static final String FAILED_AT_HEADER = "x-failed-at";
+    // Epoch millis that order a group's syncs: the publisher's AMQP timestamp, or the first
+    // delivery when the publisher set none; kept by retries, partitions and replays
+    public static final String SOURCE_TIME_HEADER = "x-source-time";
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final RabbitTemplate rabbitTemplate;
+    private final Counter retried;
+    private final Counter deadLettered;
+    private final Counter parked;
+
+    @Value("${app.rabbitmq.dead-letter.exchange}")
+    private String deadLetterExchange;
+
+    // Atraso de cada tentativa; o número de tiers é o número de tentativas extra
+    @Value("${app.rabbitmq.retry.delays-ms}")
+    private List<Long> retryDelays;
+
+    @Value("${app.rabbitmq.parking-lot.queue}")
+    private String parkingLotQueue;
+
+    @Value("${app.rabbitmq.retry.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    // Attempts to publish the copy, waiting publish-backoff-ms (doubled each time) in between
+    @Value("${app.rabbitmq.retry.publish-attempts:4}")
+    private int publishAttempts;
+
+    @Value("${app.rabbitmq.retry.publish-backoff-ms:1000}")
+    private long publishBackoffMs;
+
+    public MoodleDeadLetterProducer(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.retried = Counter.builder("moodle.rabbit.messages.retried")
+                .description("Messages sent to a delayed retry tier")
+                .register(meterRegistry);
+        this.deadLettered = Counter.builder("moodle.rabbit.messages.dead-lettered")
+                .description("Messages sent to a dead-letter queue")
+                .register(meterRegistry);
+        this.parked = Counter.builder("moodle.rabbit.messages.parked")
+                .description("Messages sent to the parking lot after their last retry")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The message was handled
+     */
+    public void ack(Message message, Channel channel) {
+        try {
+            channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+        } catch (Exception e) {
+            // The channel is gone: the broker redelivers the message to another consumer
+            log.warn("[MoodleDeadLetterProducer] Unable to ack message: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Transient failure: schedule a delayed retry, or park the message once the tiers are used up
+     *
+     * @param errorType short failure class (exception name), used to filter the parking lot
+     */
+    public void retry(Message message, Channel channel, String queue, String errorType, String error) {
+        int attempt = retryCount(message);
+        if (attempt >= retryDelays.size()) {
+            park(message, channel, queue, errorType, error);
+            return;
+        }
+        long delay = retryDelays.get(attempt);
+        if (publish(message, channel, MoodleRabbitMqConfig.retryQueue(queue, delay), queue, attempt + 1,
+                errorType, error)) {
+            retried.increment();
+            log.warn("[MoodleDeadLetterProducer] Message from {} retried in {} ms (attempt {} of {}): {}",
+                    queue, delay, attempt + 1, retryDelays.size(), error);
+        }
+    }
+
+    /**
+     * Retries exhausted: keep the message in the parking lot until it is replayed
+     */
+    public void park(Message message, Channel channel, String queue, String errorType, String error) {
+        if (publish(message, channel, parkingLotQueue, queue, retryCount(message), errorType, error)) {
+            parked.increment();
+            log.error("[MoodleDeadLetterProducer] Message from {} parked after {} retries: {}",
+                    queue, retryCount(message), error);
+        }
+    }
+
+    /**
+     * The message can never be processed (unreadable): move it to the queue's .dlq
+     */
+    public void deadLetter(Message message, Channel channel, String queue, String errorType, String error) {
+        if (publish(message, channel, MoodleRabbitMqConfig.deadLetterQueue(queue), queue, retryCount(message),
+                errorType, error)) {
+            deadLettered.increment();
+            log.error("[MoodleDeadLetterProducer] Message from {} dead-lettered: {}", queue, error);
+        }
+    }
+
+    public static int retryCount(Message message) {
+        Object count = message.getMessageProperties().getHeaders().get(RETRY_COUNT_HEADER);
+        return count instanceof Number number ? number.intValue() : 0;
+    }
+
+    private boolean publish(Message message, Channel channel, String routingKey, String queue, int retryCount,
+            String errorType, String error) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        // The delivered message is left as it was; the failure headers go on a copy
+        Message copy = MessageBuilder.fromClonedMessage(message)
+                .setHeader(RETRY_COUNT_HEADER, retryCount)
+                .setHeader(ORIGINAL_QUEUE_HEADER, queue)
+                .setHeader(ERROR_HEADER, truncate(error))
+                .setHeader(ERROR_TYPE_HEADER, errorType != null ? errorType : "Unknown")
+                .setHeader(FAILED_AT_HEADER, Instant.now().toString())
+                .build();
+
+        long backoff = publishBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                rabbitTemplate.invoke(operations -> {
+                    operations.send(deadLetterExchange, routingKey, copy);
+                    operations.waitForConfirmsOrDie(confirmTimeoutMs);
+                    return null;
+                });
+                break;
+            } catch (Exception e) {
+                if (attempt >= publishAttempts) {
+                    // Back to its queue, after the backoff above, rather than holding a prefetch slot
+                    log.error("[MoodleDeadLetterProducer] Unable to route message from {} to {} after {} attempts, "
+                            + "requeued: {}", queue, routingKey, attempt, e.getMessage());
+                    requeue(channel, deliveryTag);
+                    return false;
+                }
+                log.warn("[MoodleDeadLetterProducer] Unable to route message from {} to {} (attempt {}), "
+                        + "retrying in {} ms: {}", queue, routingKey, attempt, backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    requeue(channel, deliveryTag);
+                    return false;
+                }
+                backoff *= 2;
+            }
+        }
+
+        try {
+            channel.basicAck(deliveryTag, false);
+        } catch (Exception e) {
+            // The copy is already out; the redelivered original is a duplicate the ledger skips
+            log.warn("[MoodleDeadLetterProducer] Unable to ack message: {}", e.getMessage());
+        }
+        return true;
+    }
+
+    private static void requeue(Channel channel, long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, true);
+        } catch (Exception e) {
+            // The channel is gone: the broker redelivers the message anyway
+            log.warn("[MoodleDeadLetterProducer] Unable to requeue message: {}", e.getMessage());
+        }
+    }
+
+    private static String truncate(String error) {
+        if (error == null) {
+            return "unknown";
+        }
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.demo.producer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes course sync messages to the partitioned exchange, keyed by groupId (or the
+ * course shortname), so every update of a group lands on the same ordered partition.
+ * Each publish waits for the broker confirm: the next message is only sent once this
+ * one is enqueued, which keeps the order of the source queue within each partition.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.rabbitmq.partitions", name = "enabled", havingValue = "true")
+public class MoodleSyncPartitionRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleSyncPartitionRouter.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.rabbitmq.partitions.exchange}")
+    private String exchange;
+
+    // groupId or shortname (courseData.shortname)
+    @Value("${app.rabbitmq.partitions.hash-key:groupId}")
+    private String hashKey;
+
+    @Value("${app.rabbitmq.partitions.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    public MoodleSyncPartitionRouter(RabbitTemplate rabbitTemplate, ObjectMapper objectMapper) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Publish a sync message to its partition
+     *
+     * @param sourceTime publish time of the message (epoch millis), kept for the ordering check
+     * @return the partition key used
+     */
+    public String publish(String message, long sourceTime) {
+        String key = partitionKey(message);
+        rabbitTemplate.invoke(operations -> {
+            operations.convertAndSend(exchange, key, message, partitioned -> {
+                partitioned.getMessageProperties().setHeader(MoodleDeadLetterProducer.SOURCE_TIME_HEADER, sourceTime);
+                return partitioned;
+            });
+            operations.waitForConfirmsOrDie(confirmTimeoutMs);
+            return null;
+        });
+        log.debug("[MoodleSyncPartitionRouter] Message routed with key {}", key);
+        return key;
+    }
+
+    /**
+     * groupId or course shortname, falling back to the other one; messages without
+     * either have no group to keep in order and share one key
+     */
+    private String partitionKey(String message) {
+        try {
+            JsonNode root = objectMapper.readTree(message);
+            String groupId = root.path("groupId").asText("");
+            String shortname = root.path("courseData").path("shortname").asText("");
+            String key = "shortname".equalsIgnoreCase(hashKey)
+                    ? (shortname.isEmpty() ? groupId : shortname)
+                    : (groupId.isEmpty() ? shortname : groupId);
+            return key.isEmpty() ? "unkeyed" : key;
+        } catch (Exception e) {
+            log.warn("[MoodleSyncPartitionRouter] Unable to read partition key: {}", e.getMessage());
+            return "unkeyed";
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -88,7 +89,11 @@ public class RabbitMqHealthCheckProducer {
                     "  \"teachers\": []\n" +
                     "}";
 
-            rabbitTemplate.convertAndSend(exchange, syncCourseQueue, testMessage);
+            // O timestamp AMQP ordena as sincronizações de um grupo (ver MoodleCourseRoute.SOURCE_TIME_HEADER)
+            rabbitTemplate.convertAndSend(exchange, syncCourseQueue, testMessage, message -> {
+                message.getMessageProperties().setTimestamp(new Date());
+                return message;
+            });
             log.info("[RabbitMqHealthCheckProducer] Test sync course message sent successfully");
         } catch (Exception e) {
             log.error("[RabbitMqHealthCheckProducer] Failed to send test sync course: {}", e.getMessage(), e);
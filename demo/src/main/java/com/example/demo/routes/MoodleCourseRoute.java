@@ -2,22 +2,110 @@ package com.example.demo.routes;
 
 import com.example.demo.bens.CourseRequest;
 import com.example.demo.bens.CourseSyncRequest;
+import com.example.demo.bens.MoodleEnrolledUser;
+import com.example.demo.bens.MoodleEnrolment;
+import com.example.demo.bens.MoodleUserRequest;
+import com.example.demo.entity.SyncCheckpoint;
+import com.example.demo.services.MoodleCallPriority;
 import com.example.demo.services.MoodleService;
+import com.example.demo.services.SyncCheckpointService;
+import com.example.demo.services.SyncLedgerService;
+import com.example.demo.services.UserProvisioningRegistry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.camel.AggregationStrategy;
 import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
 import org.apache.camel.model.dataformat.JsonLibrary;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.util.concurrent.ThreadPoolRejectedPolicy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class MoodleCourseRoute extends RouteBuilder {
 
+    /**
+     * Header that selects the sync lane; "interactive" syncs get their own stage consumers
+     * and never queue behind a bulk load, anything else runs in the bulk lane
+     */
+    public static final String LANE_HEADER = "MoodleSyncLane";
+    public static final String INTERACTIVE_LANE = "interactive";
+    public static final String BULK_LANE = "bulk";
+
+    /**
+     * Header with the time that orders the sync requests of a group (Instant or epoch
+     * millis): when the publisher sent the request, or when it was first received if the
+     * publisher did not say. A request older than the last one applied to its group is
+     * dropped, so a backlog, a delayed retry or a replay never undoes a newer snapshot;
+     * without the header the request counts as sent now.
+     */
+    public static final String SOURCE_TIME_HEADER = "MoodleSyncSourceTime";
+
+    private static final String SYNC_REQUEST = "moodleSyncRequest";
+    private static final String SYNC_RESULT = "moodleSyncResult";
+    private static final String COURSE_ID = "moodleCourseId";
+    private static final String CURRENT_ENROLMENTS = "moodleCurrentEnrolments";
+    private static final String ROSTER_USERNAMES = "moodleRosterUsernames";
+    private static final String CONTENT_HASH = "moodleContentHash";
+    private static final String LEDGER_SKIPPED = "moodleLedgerSkipped";
+    private static final String CHECKPOINT = "moodleSyncCheckpoint";
+    private static final String PENDING_MEMBERS = "moodlePendingMembers";
+    private static final String USER_IDS = "moodleUserIds";
+    private static final String STAGE_ENQUEUED = "moodleStageEnqueued";
+    private static final String SYNC_LANE = "moodleSyncLane";
+    private static final String SOURCE_TIME = "moodleSyncSourceTime";
+
+    // Papéis geridos pela integração (5 = student, 3 = teacher); os restantes nunca são removidos
+    private static final Set<Integer> MANAGED_ROLES = Set.of(5, 3);
+
     @Autowired
     private MoodleService moodleService;
 
+    @Autowired
+    private SyncLedgerService syncLedgerService;
+
+    @Autowired
+    private SyncCheckpointService syncCheckpointService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Threads que despacham os blocos do roster para os estágios, em paralelo
+    @Value("${app.camel.sync.pool-size:8}")
+    private int syncPoolSize;
+
+    @Value("${app.camel.sync.pool-queue-size:100}")
+    private int syncPoolQueueSize;
+
+    // Pool próprio da via interativa, para não esperar atrás dos blocos de uma carga em massa
+    @Value("${app.camel.sync.lanes.interactive.pool-size:4}")
+    private int interactivePoolSize;
+
+    @Value("${app.camel.sync.lanes.interactive.pool-queue-size:50}")
+    private int interactivePoolQueueSize;
+
+    // Usuários distintos por bloco (provisionamento + inscrição)
+    @Value("${app.camel.sync.chunk-size:50}")
+    private int syncChunkSize;
+
+    // Modo delta: só inscreve o que falta e remove quem saiu do roster
+    @Value("${app.moodle.sync.delta:true}")
+    private boolean deltaSync;
+
+    @Value("${app.moodle.sync.unenrol-missing:true}")
+    private boolean unenrolMissing;
+
     @Override
     public void configure() throws Exception {
 
@@ -94,202 +182,729 @@ public class MoodleCourseRoute extends RouteBuilder {
                 .log("[MoodleCourseRoute] Search response: ${body}")
                 .marshal().json(JsonLibrary.Jackson);
 
-        // Route to synchronize course with Moodle (complete integration)
+        // Route to synchronize course with Moodle (complete integration).
+        // A payload identical to the last one applied for the group (sync ledger) is
+        // answered without calling Moodle; anything else goes to the sync of its lane.
         from("direct:syncCourse")
                 .routeId("moodle-sync-course-route")
                 .log("[MoodleCourseRoute] Starting course synchronization: ${body}")
                 .unmarshal().json(JsonLibrary.Jackson, CourseSyncRequest.class)
-                .process(exchange -> {
-                    CourseSyncRequest syncRequest = exchange.getIn().getBody(CourseSyncRequest.class);
+                .to("direct:syncCourseRequest")
+                .setHeader(Exchange.CONTENT_TYPE, constant("application/json"))
+                .log("[MoodleCourseRoute] Synchronization completed: ${body}")
+                .marshal().json(JsonLibrary.Jackson);
 
-                    if (syncRequest == null || syncRequest.getGroupId() == null) {
-                        throw new IllegalArgumentException("Invalid synchronization request");
-                    }
+        // Same synchronization for an already parsed CourseSyncRequest (bulk ingestion);
+        // the body becomes the result map
+        from("direct:syncCourseRequest")
+                .routeId("moodle-sync-course-request-route")
+                .process(this::selectLane)
+                .process(this::hashRequest)
+                .process(this::checkLedger)
+                .choice()
+                    .when(exchangeProperty(LEDGER_SKIPPED).isEqualTo(true))
+                        .log("[MoodleCourseRoute] Payload unchanged since last sync, skipping Moodle")
+                    .when(exchangeProperty(SYNC_LANE).isEqualTo(INTERACTIVE_LANE))
+                        .to(applyEndpoint(INTERACTIVE_LANE))
+                    .otherwise()
+                        .to(applyEndpoint(BULK_LANE))
+                .end();
+
+        // Priority lanes: interactive syncs (small changes from the interactive queue) and
+        // bulk syncs run the same steps on separate stage consumers and fan-out pools, so
+        // a term-start load never delays an interactive change and, since each lane keeps
+        // its own reserved consumers, interactive traffic cannot starve the bulk lane either
+        applyRoute(BULK_LANE, syncPool("MoodleSyncFanOut", syncPoolSize, syncPoolQueueSize));
+        applyRoute(INTERACTIVE_LANE,
+                syncPool("MoodleSyncFanOutInteractive", interactivePoolSize, interactivePoolQueueSize));
+
+        for (String lane : List.of(BULK_LANE, INTERACTIVE_LANE)) {
+            // Delta mode: the course stage also reads the current enrolments once and
+            // diffs them against the roster
+            stage("course", lane, this::resolveCourse, this::loadCurrentEnrolments, this::planRoster);
+            stage("users", lane, this::provisionChunk);
+            stage("enrolments", lane, this::enrolChunk);
+            stage("sections", lane, this::finishSync);
+        }
+    }
 
-                    log.info("[MoodleCourseRoute] Synchronizing group: {}", syncRequest.getGroupId());
+    /**
+     * The sync of one lane. It runs as four checkpointed steps (course, users, enrolments,
+     * sections); a redelivered payload resumes after the last step its previous attempt
+     * completed. Each step is a SEDA stage with its own bounded queue and consumers, so the
+     * Moodle code paths are tuned apart; users and enrolments go to their stage in chunks,
+     * dispatched in parallel on the lane's pool and merged back in roster order.
+     */
+    private void applyRoute(String lane, ExecutorService syncPool) {
+        from(applyEndpoint(lane))
+                .routeId(BULK_LANE.equals(lane)
+                        ? "moodle-apply-course-sync-route"
+                        : "moodle-apply-course-sync-" + lane + "-route")
+                .doTry()
+                    // Step 1: Create or verify course exists (or resume from a checkpoint)
+                    .process(this::markEnqueued)
+                    .to(stageProducer("course", lane))
+                    // Step 2: provision the users that need an enrolment
+                    .split(method(this, "userChunks"), new ChunkResultAggregation())
+                        .parallelProcessing()
+                        .executorService(syncPool)
+                        .process(this::markEnqueued)
+                        .to(stageProducer("users", lane))
+                    .end()
+                    .process(this::finishUsers)
+                    // Step 3: enroll them with their roles and unenroll who left the roster
+                    .split(method(this, "enrolmentChunks"), new ChunkResultAggregation())
+                        .parallelProcessing()
+                        .executorService(syncPool)
+                        .process(this::markEnqueued)
+                        .to(stageProducer("enrolments", lane))
+                    .end()
+                    .process(this::finishEnrolments)
+                    // Step 4: update course sections
+                    .process(this::markEnqueued)
+                    .to(stageProducer("sections", lane))
+                    // Remember the payload when it was applied without failures
+                    .process(this::recordLedger)
+                .endDoTry()
+                .doCatch(Exception.class)
+                    .process(this::failSync)
+                .end();
+    }
 
-                    Map<String, Object> syncResult = new HashMap<>();
-                    syncResult.put("groupId", syncRequest.getGroupId());
-                    syncResult.put("timestamp", new Date());
+    private static String applyEndpoint(String lane) {
+        return BULK_LANE.equals(lane) ? "direct:applyCourseSync" : "direct:applyCourseSync-" + lane;
+    }
 
+    /**
+     * Consumer route of a sync stage. Failures are not handled here but go back to the
+     * waiting caller, where the sync's doCatch deals with them.
+     */
+    private void stage(String name, String lane, Processor... steps) {
+        Timer wait = Timer.builder("moodle.sync.stage.wait")
+                .description("Time a sync task waited in the stage queue")
+                .tag("stage", name)
+                .tag("lane", lane)
+                .register(meterRegistry);
+        Timer latency = Timer.builder("moodle.sync.stage.latency")
+                .description("Time a sync task took to run in the stage")
+                .tag("stage", name)
+                .tag("lane", lane)
+                .register(meterRegistry);
+
+        from(stageConsumer(name, lane))
+                .routeId(BULK_LANE.equals(lane) ? "moodle-sync-stage-" + name : "moodle-sync-stage-" + name + "-" + lane)
+                .onException(Exception.class)
+                    .handled(false)
+                    .logExhausted(false)
+                .end()
+                .process(exchange -> {
+                    long start = System.nanoTime();
+                    Long enqueued = exchange.getProperty(STAGE_ENQUEUED, Long.class);
+                    if (enqueued != null) {
+                        wait.record(start - enqueued, TimeUnit.NANOSECONDS);
+                    }
                     try {
-                        // Step 1: Create or verify course exists
-                        CourseRequest courseData = syncRequest.getCourseData();
-                        if (courseData != null) {
-                            log.info("[MoodleCourseRoute] Creating course: {}", courseData.getFullname());
-                            Map<String, Object> courseResponse = moodleService.createCourse(courseData);
-                            syncResult.put("courseCreation", courseResponse);
-
-                            // Extract course ID from response if available
-                            Integer courseId = extractCourseId(courseResponse);
-                            syncResult.put("courseId", courseId);
-
-                            // Step 2: Create users (students and teachers) if they don't exist
-                            List<Map<String, Object>> createdUsers = new ArrayList<>();
-
-                            // Create students
-                            if (syncRequest.getStudents() != null) {
-                                log.info("[MoodleCourseRoute] Creating {} students", syncRequest.getStudents().size());
-                                for (CourseSyncRequest.StudentData student : syncRequest.getStudents()) {
-                                    try {
-                                        Map<String, Object> userResponse = moodleService.createUser(
-                                                student.getUsername(),
-                                                student.getName(),
-                                                student.getShortname() != null ? student.getShortname() : "",
-                                                student.getEmail());
-                                        createdUsers.add(Map.of(
-                                                "username", student.getUsername(),
-                                                "type", "student",
-                                                "response", userResponse));
-                                    } catch (Exception e) {
-                                        log.warn("[MoodleCourseRoute] Failed to create student {}: {}",
-                                                student.getUsername(), e.getMessage());
-                                    }
-                                }
+                        // Moodle calls of the interactive lane go ahead of bulk calls in the limiter
+                        MoodleCallPriority.runAs(INTERACTIVE_LANE.equals(lane), () -> {
+                            for (Processor step : steps) {
+                                step.process(exchange);
                             }
+                        });
+                    } finally {
+                        latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                });
+
+        SedaEndpoint endpoint = getContext().getEndpoint(stageConsumer(name, lane), SedaEndpoint.class);
+        Gauge.builder("moodle.sync.stage.queue", endpoint, SedaEndpoint::getCurrentQueueSize)
+                .description("Sync tasks waiting in the stage queue")
+                .tag("stage", name)
+                .tag("lane", lane)
+                .register(meterRegistry);
+    }
 
-                            // Create teachers
-                            if (syncRequest.getTeachers() != null) {
-                                log.info("[MoodleCourseRoute] Creating {} teachers", syncRequest.getTeachers().size());
-                                for (CourseSyncRequest.TeacherData teacher : syncRequest.getTeachers()) {
-                                    try {
-                                        Map<String, Object> userResponse = moodleService.createUser(
-                                                teacher.getUsername(),
-                                                teacher.getName(),
-                                                teacher.getShortname() != null ? teacher.getShortname() : "",
-                                                teacher.getEmail());
-                                        createdUsers.add(Map.of(
-                                                "username", teacher.getUsername(),
-                                                "type", "teacher",
-                                                "response", userResponse));
-                                    } catch (Exception e) {
-                                        log.warn("[MoodleCourseRoute] Failed to create teacher {}: {}",
-                                                teacher.getUsername(), e.getMessage());
-                                    }
-                                }
-                            }
+    private static String stageConsumer(String name, String lane) {
+        return stageQueue(name, lane)
+                + "?size={{" + stageConfig(name, lane) + ".queue-size}}"
+                + "&concurrentConsumers={{" + stageConfig(name, lane) + ".concurrency}}";
+    }
 
-                            syncResult.put("usersCreated", createdUsers);
-
-                            // Step 3: Enroll users in the course
-                            if (courseId != null) {
-                                List<Map<String, Object>> enrollments = new ArrayList<>();
-
-                                // Enroll students (role 5)
-                                if (syncRequest.getStudents() != null) {
-                                    log.info("[MoodleCourseRoute] Enrolling students");
-                                    List<Map<String, Object>> studentMaps = syncRequest.getStudents().stream()
-                                            .map(s -> Map.of(
-                                                    "username", (Object) s.getUsername(),
-                                                    "userid", (Object) Integer.parseInt(s.getPersonId())))
-                                            .collect(Collectors.toList());
-
-                                    for (Map<String, Object> student : studentMaps) {
-                                        try {
-                                            Integer userId = (Integer) student.get("userid");
-                                            Map<String, Object> enrollResponse = moodleService.enrollUser(
-                                                    userId, courseId, 5);
-                                            enrollments.add(Map.of(
-                                                    "username", student.get("username"),
-                                                    "role", "student",
-                                                    "success", true));
-                                        } catch (Exception e) {
-                                            log.warn("[MoodleCourseRoute] Failed to enroll student: {}",
-                                                    e.getMessage());
-                                            enrollments.add(Map.of(
-                                                    "username", student.get("username"),
-                                                    "role", "student",
-                                                    "success", false,
-                                                    "error", e.getMessage()));
-                                        }
-                                    }
-                                }
-
-                                // Enroll teachers (role 3)
-                                if (syncRequest.getTeachers() != null) {
-                                    log.info("[MoodleCourseRoute] Enrolling teachers");
-                                    List<Map<String, Object>> teacherMaps = syncRequest.getTeachers().stream()
-                                            .map(t -> Map.of(
-                                                    "username", (Object) t.getUsername(),
-                                                    "userid", (Object) Integer.parseInt(t.getPersonId())))
-                                            .collect(Collectors.toList());
-
-                                    for (Map<String, Object> teacher : teacherMaps) {
-                                        try {
-                                            Integer userId = (Integer) teacher.get("userid");
-                                            Map<String, Object> enrollResponse = moodleService.enrollUser(
-                                                    userId, courseId, 3);
-                                            enrollments.add(Map.of(
-                                                    "username", teacher.get("username"),
-                                                    "role", "teacher",
-                                                    "success", true));
-                                        } catch (Exception e) {
-                                            log.warn("[MoodleCourseRoute] Failed to enroll teacher: {}",
-                                                    e.getMessage());
-                                            enrollments.add(Map.of(
-                                                    "username", teacher.get("username"),
-                                                    "role", "teacher",
-                                                    "success", false,
-                                                    "error", e.getMessage()));
-                                        }
-                                    }
-                                }
-
-                                syncResult.put("enrollments", enrollments);
-
-                                // Count successes
-                                long successCount = enrollments.stream()
-                                        .filter(e -> (Boolean) e.getOrDefault("success", false))
-                                        .count();
-                                syncResult.put("enrollmentSuccess", successCount);
-                                syncResult.put("enrollmentFailed", enrollments.size() - successCount);
-                            }
+    /**
+     * The caller waits for the stage to finish; a full queue blocks it up to offer-timeout-ms
+     * (block-when-full=true) or fails the sync at once
+     */
+    private static String stageProducer(String name, String lane) {
+        return stageQueue(name, lane)
+                + "?size={{" + stageConfig(name, lane) + ".queue-size}}"
+                + "&waitForTaskToComplete=Always"
+                + "&timeout={{app.camel.sync.stages.timeout-ms}}"
+                + "&blockWhenFull={{" + stageConfig(name, lane) + ".block-when-full}}"
+                + "&offerTimeout={{" + stageConfig(name, lane) + ".offer-timeout-ms}}";
+    }
 
-                            // Step 4: Update course sections with content
-                            if (courseId != null && syncRequest.getObjectives() != null) {
-                                log.info("[MoodleCourseRoute] Updating course sections");
-                                String summary = buildCourseSummary(syncRequest);
-                                Map<String, Object> sectionResponse = moodleService.updateCourseSection(
-                                        courseId, 0, summary);
-                                syncResult.put("sectionUpdate", sectionResponse);
-                            }
+    private static String stageQueue(String name, String lane) {
+        return BULK_LANE.equals(lane) ? "seda:moodle-sync-" + name : "seda:moodle-sync-" + name + "-" + lane;
+    }
 
-                            syncResult.put("success", true);
-                            syncResult.put("message", "Course synchronized successfully");
+    /**
+     * Bulk stages are tuned one by one (app.camel.sync.stages.&lt;stage&gt;); the interactive
+     * lane carries little traffic and shares one setting for all its stages
+     */
+    private static String stageConfig(String name, String lane) {
+        return BULK_LANE.equals(lane) ? "app.camel.sync.stages." + name : "app.camel.sync.lanes." + lane;
+    }
 
-                        } else {
-                            throw new IllegalArgumentException("Course data is required for synchronization");
-                        }
+    private void markEnqueued(Exchange exchange) {
+        exchange.setProperty(STAGE_ENQUEUED, System.nanoTime());
+    }
 
-                    } catch (Exception e) {
-                        log.error("[MoodleCourseRoute] Synchronization failed: {}", e.getMessage(), e);
-                        syncResult.put("success", false);
-                        syncResult.put("error", e.getMessage());
-                    }
+    /**
+     * Pool limitado para os blocos da sincronização; quando a fila enche, o bloco corre
+     * na thread que o submeteu, o que trava a leitura de mais blocos
+     */
+    private ExecutorService syncPool(String name, int size, int queueSize) {
+        ThreadPoolProfile profile = new ThreadPoolProfileBuilder(name)
+                .poolSize(size)
+                .maxPoolSize(size)
+                .maxQueueSize(queueSize)
+                .rejectedPolicy(ThreadPoolRejectedPolicy.CallerRuns)
+                .build();
+        return getCamelContext().getExecutorServiceManager().newThreadPool(this, name, profile);
+    }
 
-                    exchange.getMessage().setBody(syncResult);
-                    exchange.getMessage().setHeader(Exchange.CONTENT_TYPE, "application/json");
-                })
-                .log("[MoodleCourseRoute] Synchronization completed: ${body}")
-                .marshal().json(JsonLibrary.Jackson);
+    /**
+     * Lane of the sync, from the LANE_HEADER header; unknown values go to the bulk lane
+     */
+    private void selectLane(Exchange exchange) {
+        String lane = exchange.getIn().getHeader(LANE_HEADER, String.class);
+        exchange.setProperty(SYNC_LANE, INTERACTIVE_LANE.equalsIgnoreCase(lane) ? INTERACTIVE_LANE : BULK_LANE);
+
+        Object sourceTime = exchange.getIn().getHeader(SOURCE_TIME_HEADER);
+        exchange.setProperty(SOURCE_TIME, sourceTime instanceof Instant instant ? instant
+                : sourceTime instanceof Number millis ? Instant.ofEpochMilli(millis.longValue())
+                : Instant.now());
+    }
+
+    /**
+     * Content hash of the request, shared by the sync ledger and the checkpoints
+     */
+    private void hashRequest(Exchange exchange) {
+        CourseSyncRequest syncRequest = exchange.getIn().getBody(CourseSyncRequest.class);
+        if (syncRequest == null || syncRequest.getGroupId() == null) {
+            return;
+        }
+        try {
+            exchange.setProperty(CONTENT_HASH, syncLedgerService.contentHash(syncRequest));
+        } catch (Exception e) {
+            log.warn("[MoodleCourseRoute] Unable to hash request for group {}: {}", syncRequest.getGroupId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Look the request up in the sync ledger; an unchanged payload, or one older than the
+     * last sync applied to the group, gets its result here
+     */
+    private void checkLedger(Exchange exchange) {
+        CourseSyncRequest syncRequest = exchange.getIn().getBody(CourseSyncRequest.class);
+        String hash = exchange.getProperty(CONTENT_HASH, String.class);
+        if (hash == null) {
+            return;
+        }
+        if (syncLedgerService.isStale(syncRequest.getGroupId(), exchange.getProperty(SOURCE_TIME, Instant.class))) {
+            log.warn("[MoodleCourseRoute] Dropping stale payload for group {}: a newer one was already applied",
+                    syncRequest.getGroupId());
+            Map<String, Object> syncResult = new HashMap<>();
+            syncResult.put("groupId", syncRequest.getGroupId());
+            syncResult.put("timestamp", new Date());
+            syncResult.put("success", true);
+            syncResult.put("skipped", true);
+            syncResult.put("stale", true);
+            syncResult.put("message", "A newer synchronization of this group was already applied");
+            exchange.setProperty(LEDGER_SKIPPED, true);
+            exchange.getMessage().setBody(syncResult);
+            return;
+        }
+        Optional<Integer> courseId = syncLedgerService.findUnchanged(syncRequest.getGroupId(), hash);
+        if (courseId.isPresent()) {
+            Map<String, Object> syncResult = new HashMap<>();
+            syncResult.put("groupId", syncRequest.getGroupId());
+            syncResult.put("timestamp", new Date());
+            syncResult.put("courseId", courseId.get());
+            syncResult.put("success", true);
+            syncResult.put("skipped", true);
+            syncResult.put("message", "Course already synchronized with this content");
+            exchange.setProperty(LEDGER_SKIPPED, true);
+            exchange.getMessage().setBody(syncResult);
+        }
+    }
+
+    /**
+     * Record the applied payload in the ledger, then drop its checkpoint: a crash in
+     * between resumes after the sections step instead of repeating the sync
+     */
+    @SuppressWarnings("unchecked")
+    private void recordLedger(Exchange exchange) {
+        String hash = exchange.getProperty(CONTENT_HASH, String.class);
+        Map<String, Object> syncResult = exchange.getIn().getBody(Map.class);
+        if (hash == null || syncResult == null || !Boolean.TRUE.equals(syncResult.get("success"))) {
+            return;
+        }
+        // Failed enrolments must be retried by the next resend, so the payload is not recorded
+        // as unchanged, only as the newest one applied
+        long failed = ((Number) syncResult.getOrDefault("enrollmentFailed", 0L)).longValue()
+                + ((Number) syncResult.getOrDefault("unenrollmentFailed", 0L)).longValue();
+        Instant sourceTime = exchange.getProperty(SOURCE_TIME, Instant.class);
+        if (failed == 0) {
+            syncLedgerService.record((String) syncResult.get("groupId"), hash, (Integer) syncResult.get("courseId"),
+                    sourceTime);
+        } else {
+            syncLedgerService.recordPartial((String) syncResult.get("groupId"), (Integer) syncResult.get("courseId"),
+                    sourceTime);
+        }
+        syncCheckpointService.complete(exchange.getProperty(SYNC_REQUEST, CourseSyncRequest.class).getGroupId());
+    }
+
+    /**
+     * Validate the request and resolve the Moodle course, or pick up the checkpoint
+     * an earlier attempt of the same payload left behind
+     */
+    private void resolveCourse(Exchange exchange) {
+        CourseSyncRequest syncRequest = exchange.getIn().getBody(CourseSyncRequest.class);
+
+        if (syncRequest == null || syncRequest.getGroupId() == null) {
+            throw new IllegalArgumentException("Invalid synchronization request");
+        }
+
+        log.info("[MoodleCourseRoute] Synchronizing group: {}", syncRequest.getGroupId());
+        exchange.setProperty(SYNC_REQUEST, syncRequest);
+
+        String hash = exchange.getProperty(CONTENT_HASH, String.class);
+        Optional<SyncCheckpoint> checkpoint = syncCheckpointService.find(syncRequest.getGroupId(), hash);
+        if (checkpoint.isPresent() && resume(exchange, checkpoint.get())) {
+            return;
+        }
+
+        Map<String, Object> syncResult = new HashMap<>();
+        syncResult.put("groupId", syncRequest.getGroupId());
+        syncResult.put("timestamp", new Date());
+        exchange.setProperty(SYNC_RESULT, syncResult);
+
+        CourseRequest courseData = syncRequest.getCourseData();
+        if (courseData == null) {
+            throw new IllegalArgumentException("Course data is required for synchronization");
+        }
+        log.info("[MoodleCourseRoute] Resolving course: {}", courseData.getShortname());
+        Integer courseId = moodleService.getOrCreateCourse(courseData);
+        syncResult.put("courseId", courseId);
+        exchange.setProperty(COURSE_ID, courseId);
+        syncCheckpointService.save(syncRequest.getGroupId(), hash, SyncCheckpoint.Step.COURSE, courseId, null, syncResult);
+    }
+
+    /**
+     * Restore the state of the completed steps; an unreadable checkpoint is ignored
+     */
+    private boolean resume(Exchange exchange, SyncCheckpoint checkpoint) {
+        try {
+            Map<String, Object> syncResult = syncCheckpointService.result(checkpoint);
+            if (checkpoint.reached(SyncCheckpoint.Step.USERS)) {
+                exchange.setProperty(USER_IDS, syncCheckpointService.userIds(checkpoint));
+            }
+            syncResult.put("timestamp", new Date());
+            syncResult.put("resumedFrom", checkpoint.getStep().name());
+            exchange.setProperty(SYNC_RESULT, syncResult);
+            exchange.setProperty(COURSE_ID, checkpoint.getMoodleCourseId());
+            exchange.setProperty(CHECKPOINT, checkpoint.getStep());
+            log.info("[MoodleCourseRoute] Resuming group {} after step {}", checkpoint.getGroupId(), checkpoint.getStep());
+            return true;
+        } catch (Exception e) {
+            log.warn("[MoodleCourseRoute] Ignoring checkpoint for group {}: {}", checkpoint.getGroupId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean reached(Exchange exchange, SyncCheckpoint.Step step) {
+        SyncCheckpoint.Step done = exchange.getProperty(CHECKPOINT, SyncCheckpoint.Step.class);
+        return done != null && done.compareTo(step) >= 0;
+    }
+
+    private void checkpoint(Exchange exchange, SyncCheckpoint.Step step) {
+        CourseSyncRequest syncRequest = exchange.getProperty(SYNC_REQUEST, CourseSyncRequest.class);
+        syncCheckpointService.save(syncRequest.getGroupId(), exchange.getProperty(CONTENT_HASH, String.class), step,
+                exchange.getProperty(COURSE_ID, Integer.class), exchange.getProperty(USER_IDS, Map.class),
+                exchange.getProperty(SYNC_RESULT, Map.class));
+    }
+
+    /**
+     * Read the course's current enrolments (one core_enrol_get_enrolled_users call)
+     */
+    private void loadCurrentEnrolments(Exchange exchange) {
+        if (!deltaSync || reached(exchange, SyncCheckpoint.Step.ENROLMENTS)) {
+            return;
+        }
+        Integer courseId = exchange.getProperty(COURSE_ID, Integer.class);
+        Map<String, MoodleEnrolledUser> current = new HashMap<>();
+        for (MoodleEnrolledUser user : moodleService.getEnrolledUsers(courseId)) {
+            if (user.username() != null) {
+                current.put(user.username().toLowerCase(Locale.ROOT), user);
+            }
+        }
+        exchange.setProperty(CURRENT_ENROLMENTS, current);
+    }
+
+    /**
+     * Build the roster (students, then teachers) of distinct users. A user that is
+     * both student and teacher is one member with both roles, so no two chunks
+     * provision the same user.
+     */
+    @SuppressWarnings("unchecked")
+    private void planRoster(Exchange exchange) {
+        if (reached(exchange, SyncCheckpoint.Step.ENROLMENTS)) {
+            return;
+        }
+        CourseSyncRequest syncRequest = exchange.getProperty(SYNC_REQUEST, CourseSyncRequest.class);
+        Map<String, RosterMember> members = new LinkedHashMap<>();
+
+        if (syncRequest.getStudents() != null) {
+            log.info("[MoodleCourseRoute] Enrolling {} students", syncRequest.getStudents().size());
+            for (CourseSyncRequest.StudentData s : syncRequest.getStudents()) {
+                addMember(members, new MoodleUserRequest(s.getPersonId(), s.getUsername(),
+                        s.getName(), s.getShortname(), s.getEmail()), "student", 5);
+            }
+        }
+        if (syncRequest.getTeachers() != null) {
+            log.info("[MoodleCourseRoute] Enrolling {} teachers", syncRequest.getTeachers().size());
+            for (CourseSyncRequest.TeacherData t : syncRequest.getTeachers()) {
+                addMember(members, new MoodleUserRequest(t.getPersonId(), t.getUsername(),
+                        t.getName(), t.getShortname(), t.getEmail()), "teacher", 3);
+            }
+        }
+
+        exchange.setProperty(ROSTER_USERNAMES, new HashSet<>(members.keySet()));
+
+        List<RosterMember> roster = new ArrayList<>(members.values());
+        Map<String, MoodleEnrolledUser> current = exchange.getProperty(CURRENT_ENROLMENTS, Map.class);
+        if (current != null) {
+            roster = withoutCurrentRoles(roster, current, exchange.getProperty(SYNC_RESULT, Map.class));
+        }
+        exchange.setProperty(PENDING_MEMBERS, roster);
     }
 
     /**
-     * Extract course ID from Moodle response
+     * Chunks of the users to provision; none when the users step is already done
      */
-    private Integer extractCourseId(Map<String, Object> response) {
-        if (response != null && response.containsKey("id")) {
-            return (Integer) response.get("id");
-        }
-        // Try to extract from courses array
-        if (response != null && response.containsKey("courses")) {
-            List courses = (List) response.get("courses");
-            if (!courses.isEmpty()) {
-                Map course = (Map) courses.get(0);
-                return (Integer) course.get("id");
+    @SuppressWarnings("unchecked")
+    public List<List<MoodleUserRequest>> userChunks(Exchange exchange) {
+        if (reached(exchange, SyncCheckpoint.Step.USERS)) {
+            return List.of();
+        }
+        List<MoodleUserRequest> users = new ArrayList<>();
+        for (RosterMember member : (List<RosterMember>) exchange.getProperty(PENDING_MEMBERS, List.class)) {
+            users.add(member.user());
+        }
+        List<List<MoodleUserRequest>> chunks = chunks(users);
+        log.info("[MoodleCourseRoute] Provisioning {} users in {} chunks", users.size(), chunks.size());
+        return chunks;
+    }
+
+    /**
+     * Chunks of the members to enroll; none when the enrolments step is already done
+     */
+    @SuppressWarnings("unchecked")
+    public List<List<RosterMember>> enrolmentChunks(Exchange exchange) {
+        if (reached(exchange, SyncCheckpoint.Step.ENROLMENTS)) {
+            return List.of();
+        }
+        return chunks((List<RosterMember>) exchange.getProperty(PENDING_MEMBERS, List.class));
+    }
+
+    private <T> List<List<T>> chunks(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += syncChunkSize) {
+            chunks.add(items.subList(from, Math.min(from + syncChunkSize, items.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Keep only the roles each member does not have in the course yet; members with
+     * nothing missing need no provisioning nor enrolment
+     */
+    private List<RosterMember> withoutCurrentRoles(List<RosterMember> roster, Map<String, MoodleEnrolledUser> current,
+            Map<String, Object> syncResult) {
+        List<RosterMember> pending = new ArrayList<>();
+        int unchanged = 0;
+        for (RosterMember member : roster) {
+            MoodleEnrolledUser enrolled = current.get(rosterKey(member.user()));
+            if (enrolled == null) {
+                pending.add(member);
+                continue;
+            }
+            List<Map.Entry<String, Integer>> missing = new ArrayList<>();
+            for (Map.Entry<String, Integer> role : member.roles()) {
+                if (enrolled.roles().stream().anyMatch(r -> r.roleid() == role.getValue())) {
+                    unchanged++;
+                } else {
+                    missing.add(role);
+                }
+            }
+            if (!missing.isEmpty()) {
+                pending.add(new RosterMember(member.user(), missing));
+            }
+        }
+        syncResult.put("enrollmentUnchanged", unchanged);
+        log.info("[MoodleCourseRoute] Delta: {} inscrições já existentes, {} usuários com alterações",
+                unchanged, pending.size());
+        return pending;
+    }
+
+    private static String rosterKey(MoodleUserRequest user) {
+        return user.getUsername() != null ? user.getUsername().toLowerCase(Locale.ROOT) : "";
+    }
+
+    private void addMember(Map<String, RosterMember> members, MoodleUserRequest user, String role, int roleId) {
+        members.computeIfAbsent(rosterKey(user), k -> new RosterMember(user, new ArrayList<>()))
+                .roles().add(Map.entry(role, roleId));
+    }
+
+    /**
+     * Provision the chunk's users; within a bulk run, people already provisioned for
+     * another group are taken from the run's registry
+     */
+    @SuppressWarnings("unchecked")
+    private void provisionChunk(Exchange exchange) {
+        List<MoodleUserRequest> users = exchange.getIn().getBody(List.class);
+        UserProvisioningRegistry registry = exchange.getIn()
+                .getHeader(UserProvisioningRegistry.HEADER, UserProvisioningRegistry.class);
+        exchange.getMessage().setBody(registry != null
+                ? registry.provision(users, moodleService::provisionUsers)
+                : moodleService.provisionUsers(users));
+    }
+
+    /**
+     * Merge the provisioned user ids and checkpoint the users step
+     */
+    @SuppressWarnings("unchecked")
+    private void finishUsers(Exchange exchange) {
+        if (reached(exchange, SyncCheckpoint.Step.USERS)) {
+            return;
+        }
+        Map<String, Integer> userIds = new HashMap<>();
+        if (exchange.getIn().getBody() instanceof Map<?, ?> byIndex) {
+            for (Object chunkUserIds : byIndex.values()) {
+                userIds.putAll((Map<String, Integer>) chunkUserIds);
+            }
+        }
+        exchange.setProperty(USER_IDS, userIds);
+        exchange.getProperty(SYNC_RESULT, Map.class).put("usersProvisioned", userIds.size());
+        checkpoint(exchange, SyncCheckpoint.Step.USERS);
+    }
+
+    /**
+     * Enroll the chunk's members with their roles
+     */
+    @SuppressWarnings("unchecked")
+    private void enrolChunk(Exchange exchange) {
+        List<RosterMember> chunk = exchange.getIn().getBody(List.class);
+        Integer courseId = exchange.getProperty(COURSE_ID, Integer.class);
+        Map<String, Integer> userIds = exchange.getProperty(USER_IDS, Map.class);
+
+        List<MoodleEnrolment> toEnrol = new ArrayList<>();
+        List<String> roles = new ArrayList<>();
+        List<Map<String, Object>> enrollments = new ArrayList<>();
+        for (RosterMember member : chunk) {
+            String username = member.user().getUsername();
+            Integer userId = userIds.get(username);
+            for (Map.Entry<String, Integer> role : member.roles()) {
+                if (userId != null) {
+                    toEnrol.add(new MoodleEnrolment(username, userId, courseId, role.getValue()));
+                    roles.add(role.getKey());
+                    enrollments.add(null);
+                } else {
+                    enrollments.add(enrollmentOutcome(username, role.getKey(), false, "User not provisioned in Moodle"));
+                }
+            }
+        }
+
+        // Fill the enrolment outcomes into the places kept for them
+        List<Map<String, Object>> outcomes = moodleService.enrollUsers(toEnrol);
+        int next = 0;
+        for (int i = 0; i < enrollments.size(); i++) {
+            if (enrollments.get(i) == null) {
+                Map<String, Object> outcome = outcomes.get(next);
+                enrollments.set(i, enrollmentOutcome((String) outcome.get("username"), roles.get(next),
+                        (Boolean) outcome.get("success"), (String) outcome.get("error")));
+                next++;
+            }
+        }
+        exchange.getMessage().setBody(enrollments);
+    }
+
+    private Map<String, Object> enrollmentOutcome(String username, String role, boolean success, String error) {
+        Map<String, Object> enrollment = new HashMap<>();
+        enrollment.put("username", String.valueOf(username));
+        enrollment.put("role", role);
+        enrollment.put("success", success);
+        if (error != null) {
+            enrollment.put("error", error);
+        }
+        return enrollment;
+    }
+
+    /**
+     * Merge the enrolment outcomes in roster order, unenroll who left the roster and
+     * checkpoint the enrolments step
+     */
+    @SuppressWarnings("unchecked")
+    private void finishEnrolments(Exchange exchange) {
+        if (reached(exchange, SyncCheckpoint.Step.ENROLMENTS)) {
+            return;
+        }
+        Map<String, Object> syncResult = exchange.getProperty(SYNC_RESULT, Map.class);
+        Integer courseId = exchange.getProperty(COURSE_ID, Integer.class);
+
+        List<Map<String, Object>> enrollments = new ArrayList<>();
+        if (exchange.getIn().getBody() instanceof Map<?, ?> byIndex) {
+            for (Object chunkEnrollments : byIndex.values()) {
+                enrollments.addAll((List<Map<String, Object>>) chunkEnrollments);
+            }
+        }
+        syncResult.put("enrollments", enrollments);
+
+        // Count successes
+        long successCount = enrollments.stream()
+                .filter(e -> (Boolean) e.getOrDefault("success", false))
+                .count();
+        syncResult.put("enrollmentSuccess", successCount);
+        syncResult.put("enrollmentFailed", enrollments.size() - successCount);
+
+        Map<String, MoodleEnrolledUser> current = exchange.getProperty(CURRENT_ENROLMENTS, Map.class);
+        if (current != null && unenrolMissing) {
+            unenrolRemoved(current, exchange.getProperty(ROSTER_USERNAMES, Set.class), courseId, syncResult);
+        }
+        checkpoint(exchange, SyncCheckpoint.Step.ENROLMENTS);
+    }
+
+    /**
+     * Update the course sections (checkpointed, so a redelivery does not update them again)
+     * and close the sync; recordLedger then drops the checkpoint
+     */
+    @SuppressWarnings("unchecked")
+    private void finishSync(Exchange exchange) {
+        CourseSyncRequest syncRequest = exchange.getProperty(SYNC_REQUEST, CourseSyncRequest.class);
+        Map<String, Object> syncResult = exchange.getProperty(SYNC_RESULT, Map.class);
+        Integer courseId = exchange.getProperty(COURSE_ID, Integer.class);
+
+        if (syncRequest.getObjectives() != null && !reached(exchange, SyncCheckpoint.Step.SECTIONS)) {
+            log.info("[MoodleCourseRoute] Updating course sections");
+            String summary = buildCourseSummary(syncRequest);
+            Map<String, Object> sectionResponse = moodleService.updateCourseSection(courseId, 0, summary);
+            syncResult.put("sectionUpdate", sectionResponse);
+            checkpoint(exchange, SyncCheckpoint.Step.SECTIONS);
+        }
+
+        syncResult.put("success", true);
+        syncResult.put("message", "Course synchronized successfully");
+        exchange.getMessage().setBody(syncResult);
+    }
+
+    /**
+     * Unenroll the users that left the roster. Users holding any role the integration does not
+     * manage are left alone, and an empty roster never empties a course.
+     */
+    private void unenrolRemoved(Map<String, MoodleEnrolledUser> current, Set<String> roster, Integer courseId,
+            Map<String, Object> syncResult) {
+        List<MoodleEnrolment> toRemove = new ArrayList<>();
+        for (Map.Entry<String, MoodleEnrolledUser> entry : current.entrySet()) {
+            MoodleEnrolledUser user = entry.getValue();
+            boolean managedOnly = !user.roles().isEmpty()
+                    && user.roles().stream().allMatch(r -> MANAGED_ROLES.contains(r.roleid()));
+            if (managedOnly && !roster.contains(entry.getKey())) {
+                toRemove.add(new MoodleEnrolment(user.username(), user.id(), courseId, user.roles().get(0).roleid()));
+            }
+        }
+        if (toRemove.isEmpty()) {
+            return;
+        }
+        if (roster.isEmpty()) {
+            log.warn("[MoodleCourseRoute] Roster vazio; {} inscrições mantidas no curso {}", toRemove.size(), courseId);
+            return;
+        }
+
+        List<Map<String, Object>> unenrollments = new ArrayList<>();
+        for (Map<String, Object> outcome : moodleService.unenrollUsers(toRemove)) {
+            Map<String, Object> unenrollment = new HashMap<>();
+            unenrollment.put("username", outcome.get("username"));
+            unenrollment.put("success", outcome.get("success"));
+            if (outcome.containsKey("error")) {
+                unenrollment.put("error", outcome.get("error"));
+            }
+            unenrollments.add(unenrollment);
+        }
+        long successCount = unenrollments.stream().filter(u -> (Boolean) u.get("success")).count();
+        syncResult.put("unenrollments", unenrollments);
+        syncResult.put("unenrollmentSuccess", successCount);
+        syncResult.put("unenrollmentFailed", unenrollments.size() - successCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void failSync(Exchange exchange) {
+        Exception e = exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Exception.class);
+        log.error("[MoodleCourseRoute] Synchronization failed: {}", e.getMessage(), e);
+
+        Map<String, Object> syncResult = exchange.getProperty(SYNC_RESULT, Map.class);
+        if (syncResult == null) {
+            syncResult = new HashMap<>();
+            syncResult.put("timestamp", new Date());
+        }
+        syncResult.put("success", false);
+        syncResult.put("error", e.getMessage());
+        // Classe da causa (ex.: MoodleWebServiceException), para filtrar o parking lot
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        syncResult.put("errorType", cause.getClass().getSimpleName());
+
+        // Past the course step Moodle may already hold part of this payload: older ones are stale
+        CourseSyncRequest syncRequest = exchange.getProperty(SYNC_REQUEST, CourseSyncRequest.class);
+        Integer courseId = exchange.getProperty(COURSE_ID, Integer.class);
+        if (syncRequest != null && courseId != null) {
+            syncLedgerService.recordPartial(syncRequest.getGroupId(), courseId,
+                    exchange.getProperty(SOURCE_TIME, Instant.class));
+        }
+        exchange.getMessage().setBody(syncResult);
+    }
+
+    /**
+     * A distinct user of the roster with the roles (name, Moodle role id) it must have in the course
+     */
+    public record RosterMember(MoodleUserRequest user, List<Map.Entry<String, Integer>> roles) {
+    }
+
+    /**
+     * Keep each chunk's result under its split index, so the merged result follows
+     * roster order whatever order the chunks finish in. A failed chunk fails the
+     * whole step, so it is never checkpointed as done.
+     */
+    static final class ChunkResultAggregation implements AggregationStrategy {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Exchange aggregate(Exchange oldExchange, Exchange newExchange) {
+            Integer index = newExchange.getProperty(Exchange.SPLIT_INDEX, Integer.class);
+            Object chunkResult = newExchange.getMessage().getBody();
+            if (oldExchange == null) {
+                Map<Integer, Object> results = new TreeMap<>();
+                results.put(index, chunkResult);
+                newExchange.getMessage().setBody(results);
+                return newExchange;
+            }
+            oldExchange.getMessage().getBody(Map.class).put(index, chunkResult);
+            if (newExchange.getException() != null && oldExchange.getException() == null) {
+                oldExchange.setException(newExchange.getException());
             }
+            return oldExchange;
         }
-        return null;
     }
 
     /**
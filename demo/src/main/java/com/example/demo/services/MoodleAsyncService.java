@@ -0,0 +1,190 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.CourseRequest;
+import com.example.demo.bens.MoodleCourseList;
+import com.example.demo.bens.MoodleCreatedCourse;
+import com.example.demo.bens.MoodleEnrolment;
+import com.example.demo.bens.MoodleUserRequest;
+import com.example.demo.bens.MoodleUserSummary;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of the single-item Moodle operations.
+ * Every method returns immediately; the future completes on the HTTP client's
+ * I/O threads with the Moodle response, or with an error map like MoodleService.
+ */
+@Service
+public class MoodleAsyncService {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleAsyncService.class);
+
+    private static final TypeReference<List<MoodleCreatedCourse>> CREATED_COURSES = new TypeReference<>() {
+    };
+
+    private static final TypeReference<List<MoodleUserSummary>> USERS = new TypeReference<>() {
+    };
+
+    // core_course_update_courses answers {warnings: [...]}
+    private static final TypeReference<Map<String, Object>> WARNINGS = new TypeReference<>() {
+    };
+
+    @Value("${app.moodle.create-function:core_course_create_courses}")
+    private String createFunction;
+
+    private final MoodleClient moodleClient;
+
+    public MoodleAsyncService(MoodleClient moodleClient) {
+        this.moodleClient = moodleClient;
+    }
+
+    /**
+     * Create a course in Moodle
+     *
+     * @param request CourseRequest with course details
+     * @return future with the created course ({id, shortname}) or an error map
+     */
+    public CompletableFuture<Map<String, Object>> createCourseAsync(CourseRequest request) {
+        log.info("[MoodleAsyncService.createCourse] Iniciando criação de curso: {}", request.getFullname());
+
+        return moodleClient.call(createFunction, form -> form.course(0, request), CREATED_COURSES)
+                .thenApply(created -> {
+                    log.info("[MoodleAsyncService.createCourse] Curso criado com sucesso! Resposta: {}", created);
+                    if (created == null || created.isEmpty()) {
+                        return createSuccessResponse("Curso criado com sucesso");
+                    }
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("id", created.get(0).id());
+                    response.put("shortname", created.get(0).shortname());
+                    return response;
+                })
+                .exceptionally(e -> errorResponse("createCourse", "Erro ao criar curso", e));
+    }
+
+    /**
+     * Create a user in Moodle
+     *
+     * @return future with the created user ({id, username}) or an error map
+     */
+    public CompletableFuture<Map<String, Object>> createUserAsync(String username, String firstName, String lastName,
+            String email) {
+        log.info("[MoodleAsyncService.createUser] Criando usuário no Moodle: {}", username);
+
+        MoodleUserRequest user = new MoodleUserRequest(null, username, firstName, lastName, email);
+
+        return moodleClient.call("core_user_create_users", form -> form.user(0, user), USERS)
+                .thenApply(created -> {
+                    log.info("[MoodleAsyncService.createUser] Usuário criado com sucesso: {}", created);
+                    if (created == null || created.isEmpty()) {
+                        return createSuccessResponse("Usuário criado com sucesso");
+                    }
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("id", created.get(0).id());
+                    response.put("username", created.get(0).username());
+                    return response;
+                })
+                .exceptionally(e -> errorResponse("createUser", "Erro ao criar usuário", e));
+    }
+
+    /**
+     * Enroll a user in a Moodle course
+     *
+     * @param roleId Role ID (5 = student, 3 = teacher)
+     */
+    public CompletableFuture<Map<String, Object>> enrollUserAsync(Integer userId, Integer courseId, Integer roleId) {
+        log.info("[MoodleAsyncService.enrollUser] Inscrevendo usuário {} no curso {} com role {}",
+                userId, courseId, roleId);
+
+        MoodleEnrolment enrolment = new MoodleEnrolment(null, userId, courseId, roleId);
+
+        return moodleClient.call("enrol_manual_enrol_users", form -> form.enrolment(0, enrolment), Void.class)
+                .thenApply(body -> {
+                    log.info("[MoodleAsyncService.enrollUser] Usuário inscrito com sucesso");
+                    return createSuccessResponse("Usuário inscrito com sucesso");
+                })
+                .exceptionally(e -> errorResponse("enrollUser", "Erro ao inscrever usuário", e));
+    }
+
+    /**
+     * Search a course by name (core_course_search_courses)
+     */
+    public CompletableFuture<Map<String, Object>> getCourseByNameAsync(String courseName) {
+        log.info("[MoodleAsyncService.getCourseByName] Procurando curso: {}", courseName);
+
+        MoodleFormEncoder.Writer params = form -> form
+                .field("criterianame", "search")
+                .field("criteriavalue", courseName);
+
+        return moodleClient.call("core_course_search_courses", params, MoodleCourseList.class)
+                .thenApply(found -> {
+                    log.info("[MoodleAsyncService.getCourseByName] Pesquisa concluída: {} cursos",
+                            found != null ? found.courses().size() : 0);
+                    if (found == null) {
+                        return createSuccessResponse("Course not found");
+                    }
+                    Map<String, Object> response = new HashMap<>();
+                    response.put("total", found.total() != null ? found.total() : found.courses().size());
+                    response.put("courses", found.courses());
+                    return response;
+                })
+                .exceptionally(e -> errorResponse("getCourseByName", "Erro ao procurar curso", e));
+    }
+
+    /**
+     * Update a course section with content
+     */
+    public CompletableFuture<Map<String, Object>> updateCourseSectionAsync(Integer courseId, Integer sectionId,
+            String summary) {
+        log.info("[MoodleAsyncService.updateCourseSection] Atualizando secção {} do curso {}", sectionId, courseId);
+
+        MoodleFormEncoder.Writer params = form -> form
+                .field("sections", 0, "id", sectionId)
+                .field("sections", 0, "summary", summary);
+
+        return moodleClient.call("core_course_update_courses", params, WARNINGS)
+                .thenApply(body -> {
+                    log.info("[MoodleAsyncService.updateCourseSection] Secção atualizada com sucesso");
+                    return body != null ? body : createSuccessResponse("Secção atualizada com sucesso");
+                })
+                .exceptionally(e -> errorResponse("updateCourseSection", "Erro ao atualizar secção", e));
+    }
+
+    /**
+     * Helper method to create success response
+     */
+    private Map<String, Object> createSuccessResponse(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", message);
+        return response;
+    }
+
+    /**
+     * Turn a failed call into the error map returned to callers
+     */
+    private Map<String, Object> errorResponse(String operation, String message, Throwable e) {
+        Throwable cause = MoodleClient.unwrap(e);
+        int statusCode = 500;
+        if (cause instanceof MoodleWebServiceException) {
+            statusCode = 400;
+        } else if (cause instanceof WebClientResponseException responseException) {
+            statusCode = responseException.getStatusCode().value();
+        }
+        log.error("[MoodleAsyncService.{}] {}: {}", operation, message, cause.getMessage());
+
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", true);
+        error.put("message", String.format("%s: %s", message, cause.getMessage()));
+        error.put("statusCode", statusCode);
+        return error;
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.CourseSyncRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.camel.ProducerTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk ingestion of NDJSON files with one CourseSyncRequest per line (term start
+ * exports from SII). The file is read line by line and each line parsed on its own, so
+ * a malformed line only costs its record; records are pushed into direct:syncCourseRequest
+ * and a semaphore caps the syncs in flight, so reading waits for the pipeline and heap
+ * use does not depend on the file size.
+ * Users are provisioned once per job (UserProvisioningRegistry), however many groups
+ * they belong to.
+ */
+@Service
+public class MoodleBulkSyncService {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleBulkSyncService.class);
+
+    private final ProducerTemplate producerTemplate;
+    private final ObjectReader recordReader;
+    private final ExecutorService readers;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter skipped;
+    private final Counter malformed;
+
+    // Syncs of one job waiting for Moodle at the same time
+    @Value("${app.moodle.bulk.max-in-flight:8}")
+    private int maxInFlight;
+
+    // Finished jobs kept for the progress endpoint
+    @Value("${app.moodle.bulk.retained-jobs:50}")
+    private int retainedJobs;
+
+    public MoodleBulkSyncService(ProducerTemplate producerTemplate, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${app.moodle.bulk.max-concurrent-jobs:2}") int maxConcurrentJobs) {
+        this.producerTemplate = producerTemplate;
+        this.recordReader = objectMapper.readerFor(CourseSyncRequest.class);
+        AtomicInteger threads = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(maxConcurrentJobs, r -> {
+            Thread thread = new Thread(r, "moodle-bulk-reader-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.succeeded = records(meterRegistry, "succeeded");
+        this.failed = records(meterRegistry, "failed");
+        this.skipped = records(meterRegistry, "skipped");
+        this.malformed = records(meterRegistry, "malformed");
+        Gauge.builder("moodle.bulk.inflight", inFlight, AtomicInteger::get)
+                .description("Bulk sync records being synchronized")
+                .register(meterRegistry);
+    }
+
+    private static Counter records(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("moodle.bulk.records")
+                .description("Bulk sync records by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start a job over an NDJSON file
+     *
+     * @param file            the file to read
+     * @param deleteWhenDone  remove the file at the end (uploaded copies)
+     * @return the job, already running
+     */
+    public Job submit(Path file, boolean deleteWhenDone) {
+        Job job = new Job(UUID.randomUUID().toString(), file.getFileName().toString());
+        jobs.put(job.id, job);
+        evictFinishedJobs();
+        readers.execute(() -> run(job, file, deleteWhenDone));
+        log.info("[MoodleBulkSyncService] Job {} submitted for {}", job.id, job.source);
+        return job;
+    }
+
+    public Optional<Job> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public List<Job> getJobs() {
+        List<Job> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing((Job j) -> j.startedAt).reversed());
+        return list;
+    }
+
+    private void run(Job job, Path file, boolean deleteWhenDone) {
+        Semaphore permits = new Semaphore(maxInFlight);
+        try (BufferedReader lines = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long lineNumber = 0;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                CourseSyncRequest record;
+                try {
+                    record = recordReader.readValue(line);
+                } catch (JsonProcessingException e) {
+                    // Broken JSON or a record of the wrong shape; the next line is the next record
+                    job.malformed.incrementAndGet();
+                    malformed.increment();
+                    log.warn("[MoodleBulkSyncService] Job {}: invalid record at line {}: {}",
+                            job.id, lineNumber, e.getOriginalMessage());
+                    continue;
+                }
+                job.read.incrementAndGet();
+                permits.acquire();
+                dispatch(job, record, permits);
+            }
+            // Wait for the records still in the pipeline
+            permits.acquire(maxInFlight);
+            job.finish("COMPLETED", null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish("FAILED", "Interrupted");
+        } catch (Exception e) {
+            log.error("[MoodleBulkSyncService] Job {} failed: {}", job.id, e.getMessage(), e);
+            job.finish("FAILED", e.getMessage());
+        } finally {
+            if (deleteWhenDone) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (Exception e) {
+                    log.warn("[MoodleBulkSyncService] Unable to delete {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        log.info("[MoodleBulkSyncService] Job {} {}: {}", job.id, job.status, job.toMap());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(Job job, CourseSyncRequest record, Semaphore permits) {
+        inFlight.incrementAndGet();
+        producerTemplate.asyncRequestBodyAndHeader("direct:syncCourseRequest", record,
+                        UserProvisioningRegistry.HEADER, job.users, Map.class)
+                .whenComplete((result, error) -> {
+                    inFlight.decrementAndGet();
+                    permits.release();
+                    if (error == null && result != null && Boolean.TRUE.equals(result.get("skipped"))) {
+                        job.skipped.incrementAndGet();
+                        skipped.increment();
+                    } else if (error == null && result != null && Boolean.TRUE.equals(result.get("success"))) {
+                        job.succeeded.incrementAndGet();
+                        succeeded.increment();
+                    } else {
+                        job.failed.incrementAndGet();
+                        failed.increment();
+                        log.warn("[MoodleBulkSyncService] Job {}: group {} failed: {}", job.id, record.getGroupId(),
+                                error != null ? error.getMessage() : result != null ? result.get("error") : null);
+                    }
+                });
+    }
+
+    private void evictFinishedJobs() {
+        List<Job> finished = getJobs().stream().filter(j -> j.finishedAt != null).toList();
+        for (int i = retainedJobs; i < finished.size(); i++) {
+            jobs.remove(finished.get(i).id);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readers.shutdownNow();
+    }
+
+    /**
+     * Progress of one bulk sync
+     */
+    public static final class Job {
+
+        private final String id;
+        private final String source;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong malformed = new AtomicLong();
+        // Each person is provisioned once per job, whatever the number of groups
+        private final UserProvisioningRegistry users = new UserProvisioningRegistry();
+        private volatile String status = "RUNNING";
+        private volatile String error;
+        private volatile Instant finishedAt;
+
+        private Job(String id, String source) {
+            this.id = id;
+            this.source = source;
+        }
+
+        private void finish(String status, String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.status = status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Map<String, Object> toMap() {
+            long done = succeeded.get() + skipped.get() + failed.get();
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            double seconds = Math.max(Duration.between(startedAt, end).toMillis(), 1) / 1000.0;
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("jobId", id);
+            map.put("source", source);
+            map.put("status", status);
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            map.put("read", read.get());
+            map.put("inFlight", read.get() - done);
+            map.put("succeeded", succeeded.get());
+            map.put("skipped", skipped.get());
+            map.put("failed", failed.get());
+            map.put("malformed", malformed.get());
+            map.put("usersProvisioned", users.getProvisioned());
+            map.put("usersReused", users.getReused());
+            map.put("recordsPerSecond", Math.round(done / seconds * 100) / 100.0);
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+}
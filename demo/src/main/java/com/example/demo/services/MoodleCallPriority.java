@@ -0,0 +1,41 @@
+package com.example.demo.services;
+
+/**
+ * Priority of the Moodle calls made by the current thread. The stages of the interactive
+ * sync lane mark their threads as interactive; MoodleClient reads the mark when a call is
+ * made and completes the call's future under the same mark, so the calls chained on it
+ * (batch splits, bounded runs, create-after-lookup) keep the priority on the HTTP threads.
+ * Anything else, including every message of the bulk queues, is a bulk call.
+ */
+public final class MoodleCallPriority {
+
+    private static final ThreadLocal<Boolean> INTERACTIVE = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * Work run under a priority mark
+     */
+    @FunctionalInterface
+    public interface Task<E extends Exception> {
+        void run() throws E;
+    }
+
+    private MoodleCallPriority() {
+    }
+
+    public static boolean isInteractive() {
+        return INTERACTIVE.get();
+    }
+
+    /**
+     * Run the action with the current thread marked as given, then restore the previous mark
+     */
+    public static <E extends Exception> void runAs(boolean interactive, Task<E> task) throws E {
+        boolean previous = INTERACTIVE.get();
+        INTERACTIVE.set(interactive);
+        try {
+            task.run();
+        } finally {
+            INTERACTIVE.set(previous);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.demo.services;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking transport for Moodle REST web-service calls.
+ * Requests are multiplexed over the pooled async HTTP client, so a caller only
+ * holds a thread while it chooses to wait on the returned future.
+ * Each call passes the adaptive limiter (at the caller's {@link MoodleCallPriority}),
+ * a circuit breaker per wsfunction and a bulkhead per operation type (courses, users,
+ * enrolments, other).
+ */
+@Component
+public class MoodleClient {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleClient.class);
+
+    /** Circuit breakers are named moodle-&lt;wsfunction&gt; */
+    public static final String CIRCUIT_PREFIX = "moodle-";
+
+    private static final MediaType FORM_UTF8 = new MediaType(MediaType.APPLICATION_FORM_URLENCODED, StandardCharsets.UTF_8);
+
+    @Value("${app.moodle.url}")
+    private String moodleUrl;
+
+    @Value("${app.moodle.token}")
+    private String moodleToken;
+
+    @Value("${app.moodle.format:json}")
+    private String format;
+
+    private final WebClient webClient;
+    private final ObjectMapper objectMapper;
+    private final MoodleConcurrencyLimiter limiter;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+    private final MeterRegistry meterRegistry;
+
+    // Funções só de leitura cujas chamadas idênticas em curso são partilhadas
+    @Value("${app.moodle.single-flight.functions:}")
+    private Set<String> singleFlightFunctions;
+
+    private final Map<Flight, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    public MoodleClient(@Qualifier("moodleWebClient") WebClient webClient, ObjectMapper objectMapper,
+            MoodleConcurrencyLimiter limiter, CircuitBreakerRegistry circuitBreakerRegistry,
+            BulkheadRegistry bulkheadRegistry, MeterRegistry meterRegistry) {
+        this.webClient = webClient;
+        this.objectMapper = objectMapper;
+        this.limiter = limiter;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Call a Moodle web-service function with form-urlencoded parameters.
+     * For the read-only functions in app.moodle.single-flight.functions, a call with the
+     * same function, parameters and response type as one already in flight shares its result.
+     *
+     * @param wsfunction   Moodle function name
+     * @param params       writes the function parameters (without wstoken/wsfunction/format)
+     * @param responseType type the JSON answer is read into; unknown fields are skipped
+     * @return future with the decoded answer (null when Moodle answers null); completes
+     *         exceptionally with MoodleWebServiceException when Moodle reports an error,
+     *         RejectedExecutionException when the concurrency limit queue is full,
+     *         CallNotPermittedException while the function's circuit is open or
+     *         BulkheadFullException when its operation type has no free slot
+     *         (only with app.moodle.limiter.enabled=false; the limiter queues those calls)
+     */
+    public <T> CompletableFuture<T> call(String wsfunction, MoodleFormEncoder.Writer params,
+            Class<T> responseType) {
+        return call(wsfunction, params, objectMapper.constructType(responseType));
+    }
+
+    public <T> CompletableFuture<T> call(String wsfunction, MoodleFormEncoder.Writer params,
+            TypeReference<T> responseType) {
+        return call(wsfunction, params, objectMapper.getTypeFactory().constructType(responseType));
+    }
+
+    private <T> CompletableFuture<T> call(String wsfunction, MoodleFormEncoder.Writer params,
+            JavaType responseType) {
+        boolean interactive = MoodleCallPriority.isInteractive();
+        // Encoded once, for the single-flight key and the request body
+        byte[] encoded;
+        try {
+            encoded = MoodleFormEncoder.encode(params);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (!singleFlightFunctions.contains(wsfunction)) {
+            return completedAs(interactive, limited(wsfunction, interactive, encoded, responseType));
+        }
+
+        Flight key = new Flight(wsfunction, responseType, ByteBuffer.wrap(encoded));
+        CompletableFuture<Object> leader = new CompletableFuture<>();
+        CompletableFuture<Object> shared = inFlight.putIfAbsent(key, leader);
+        if (shared != null) {
+            meterRegistry.counter("moodle.singleflight.coalesced", "wsfunction", wsfunction).increment();
+            log.debug("[MoodleClient] {} partilha a chamada em curso", wsfunction);
+            return completedAs(interactive, shared);
+        }
+
+        try {
+            this.<Object>limited(wsfunction, interactive, encoded, responseType).whenComplete((body, error) -> {
+                // Callers arriving after this point start a fresh call
+                inFlight.remove(key, leader);
+                if (error != null) {
+                    leader.completeExceptionally(unwrap(error));
+                } else {
+                    leader.complete(body);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            // Followers that joined meanwhile must not wait on a call that never started
+            inFlight.remove(key, leader);
+            leader.completeExceptionally(e);
+        }
+        return completedAs(interactive, leader);
+    }
+
+    /**
+     * A dependent future completed under the caller's priority, so the calls chained on it
+     * keep that priority; one caller completing or cancelling its future leaves the others alone
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> completedAs(boolean interactive, CompletableFuture<?> source) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        source.whenComplete((body, error) -> MoodleCallPriority.runAs(interactive, () -> {
+            if (error != null) {
+                result.completeExceptionally(unwrap(error));
+            } else {
+                result.complete((T) body);
+            }
+        }));
+        return result;
+    }
+
+    private <T> CompletableFuture<T> limited(String wsfunction, boolean interactive, byte[] params,
+            JavaType responseType) {
+        return limiter.acquire(wsfunction, interactive).thenCompose(permit -> {
+            long start = System.nanoTime();
+            return this.<T>guarded(wsfunction, params, responseType).whenComplete((body, error) ->
+                    limiter.release(wsfunction, interactive, System.nanoTime() - start, isOverload(error)));
+        });
+    }
+
+    /**
+     * Run the call through the function's circuit breaker and its operation type's bulkhead
+     */
+    private <T> CompletableFuture<T> guarded(String wsfunction, byte[] params, JavaType responseType) {
+        CircuitBreaker breaker = circuitBreakerRegistry.circuitBreaker(CIRCUIT_PREFIX + wsfunction);
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead(operationType(wsfunction));
+        return breaker.executeCompletionStage(
+                Bulkhead.decorateCompletionStage(bulkhead, () -> this.<T>send(wsfunction, params, responseType)))
+                .toCompletableFuture();
+    }
+
+    /**
+     * Bulkhead name for a wsfunction, so one kind of operation cannot take all connections
+     */
+    static String operationType(String wsfunction) {
+        if (wsfunction.contains("enrol")) {
+            return "moodle-enrolments";
+        }
+        if (wsfunction.startsWith("core_user_")) {
+            return "moodle-users";
+        }
+        if (wsfunction.startsWith("core_course_")) {
+            return "moodle-courses";
+        }
+        return "moodle-other";
+    }
+
+    private <T> CompletableFuture<T> send(String wsfunction, byte[] params, JavaType responseType) {
+        byte[] body = MoodleFormEncoder.encode(form -> form.field("wstoken", moodleToken)
+                .field("wsfunction", wsfunction)
+                .field("moodlewsrestformat", format)
+                .encoded(params));
+
+        log.debug("[MoodleClient] POST {} wsfunction={} ({} bytes)", moodleUrl, wsfunction, body.length);
+
+        return webClient.post()
+                .uri(moodleUrl)
+                .contentType(FORM_UTF8)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(DataBuffer.class)
+                .<T>mapNotNull(buffer -> decode(wsfunction, buffer, responseType))
+                .toFuture();
+    }
+
+    /**
+     * A Moodle error answer means the server coped with the call; transport errors,
+     * timeouts and 5xx responses mean it did not. Calls refused locally (open circuit,
+     * full bulkhead) never reached Moodle and say nothing about it.
+     */
+    static boolean isOverload(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        Throwable cause = unwrap(error);
+        if (cause instanceof MoodleWebServiceException || cause instanceof CallNotPermittedException
+                || cause instanceof BulkheadFullException || cause instanceof RejectedExecutionException) {
+            return false;
+        }
+        return !(cause instanceof WebClientResponseException response) || response.getStatusCode().is5xxServerError()
+                || response.getStatusCode().value() == 429;
+    }
+
+    /**
+     * Unwrap the CompletionException added by CompletableFuture stages
+     */
+    static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    /**
+     * Read the answer straight from the response bytes into the requested type.
+     * Moodle reports web-service errors with HTTP 200 and an object whose first
+     * field is "exception", so only the first two tokens are inspected before binding.
+     */
+    private <T> T decode(String wsfunction, DataBuffer buffer, JavaType responseType) {
+        try (InputStream in = buffer.asInputStream(true); JsonParser parser = objectMapper.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token == JsonToken.START_OBJECT) {
+                token = parser.nextToken();
+                if (token == JsonToken.FIELD_NAME && "exception".equals(parser.currentName())) {
+                    MoodleError error = objectMapper.readValue(parser, MoodleError.class);
+                    log.error("[MoodleClient] ERRO do Moodle em {}: {} - {}", wsfunction, error.errorcode(), error.message());
+                    throw new MoodleWebServiceException(error.exception(), error.errorcode(), error.message());
+                }
+                if (token == JsonToken.END_OBJECT) {
+                    // readValue treats a parser positioned on END_OBJECT as "no content"
+                    return objectMapper.readValue("{}", responseType);
+                }
+            }
+            return objectMapper.readValue(parser, responseType);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Resposta inválida do Moodle em " + wsfunction, e);
+        }
+    }
+
+    // ByteBuffer compares the encoded parameters by content
+    private record Flight(String wsfunction, JavaType responseType, ByteBuffer params) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private record MoodleError(String exception, String errorcode, String message) {
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.demo.services;
+
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive (AIMD) limit on concurrent Moodle web-service calls, one limit per wsfunction.
+ * Each call that completes fast and without transport error raises the limit by 1/limit
+ * (about +1 per round of calls); a slow or failed call multiplies it by the backoff ratio,
+ * at most once per round: calls that started before the last decrease do not decrease it again.
+ * The functions of one operation type together take at most the slots of its bulkhead, so
+ * calls wait here instead of being rejected by the bulkhead. Calls of the interactive sync
+ * lane are granted first and have reserved slots (see {@link MoodleCallPriority}).
+ * Callers over the limit wait in a bounded FIFO queue and are rejected when it is full.
+ */
+@Component
+public class MoodleConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleConcurrencyLimiter.class);
+
+    @Value("${app.moodle.limiter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.moodle.limiter.initial-limit:4}")
+    private int initialLimit;
+
+    @Value("${app.moodle.limiter.min-limit:1}")
+    private int minLimit;
+
+    // Limite máximo por omissão; app.moodle.limiter.budgets define limites por wsfunction
+    @Value("${app.moodle.limiter.max-limit:20}")
+    private int maxLimit;
+
+    @Value("#{${app.moodle.limiter.budgets:{:}}}")
+    private Map<String, Integer> budgets;
+
+    @Value("${app.moodle.limiter.backoff-ratio:0.7}")
+    private double backoffRatio;
+
+    @Value("${app.moodle.limiter.latency-threshold-ms:3000}")
+    private long latencyThresholdMs;
+
+    @Value("${app.moodle.limiter.max-queue:500}")
+    private int maxQueue;
+
+    @Value("${app.moodle.limiter.queue-timeout-ms:30000}")
+    private long queueTimeoutMs;
+
+    // Slots de cada tipo de operação que só as chamadas interativas podem usar
+    @Value("${app.moodle.limiter.interactive-reserved-slots:1}")
+    private int interactiveReservedSlots;
+
+    // Fração dos slots que as chamadas bulk mantêm mesmo com chamadas interativas em espera
+    @Value("${app.moodle.limiter.bulk-min-share:0.5}")
+    private double bulkMinShare;
+
+    private final Map<String, FunctionLimit> limits = new ConcurrentHashMap<>();
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final BulkheadRegistry bulkheadRegistry;
+
+    public MoodleConcurrencyLimiter(MeterRegistry meterRegistry, BulkheadRegistry bulkheadRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bulkheadRegistry = bulkheadRegistry;
+    }
+
+    /**
+     * Reserve a slot for a call to the given function
+     *
+     * @param interactive the call serves the interactive sync lane, so it is granted before
+     *                    queued bulk calls and may use the slots reserved for that lane
+     * @return future completed once the call may start; fails with RejectedExecutionException
+     *         when the queue is full or with TimeoutException after app.moodle.limiter.queue-timeout-ms
+     */
+    public CompletableFuture<Void> acquire(String wsfunction, boolean interactive) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return limits.computeIfAbsent(wsfunction, this::newLimit).acquire(interactive);
+    }
+
+    /**
+     * Give the slot back and adapt the limit
+     *
+     * @param interactive  as given to acquire
+     * @param latencyNanos duration of the call
+     * @param overloaded   true when the call failed in a way that indicates Moodle is overloaded
+     */
+    public void release(String wsfunction, boolean interactive, long latencyNanos, boolean overloaded) {
+        if (!enabled) {
+            return;
+        }
+        FunctionLimit limit = limits.get(wsfunction);
+        if (limit != null) {
+            limit.release(interactive, System.nanoTime() - latencyNanos,
+                    overloaded || TimeUnit.NANOSECONDS.toMillis(latencyNanos) > latencyThresholdMs);
+        }
+    }
+
+    private FunctionLimit newLimit(String wsfunction) {
+        int max = budgets.getOrDefault(wsfunction, maxLimit);
+        Pool pool = pools.computeIfAbsent(MoodleClient.operationType(wsfunction), this::newPool);
+        FunctionLimit limit = new FunctionLimit(wsfunction, pool, Math.min(initialLimit, max), max);
+
+        Gauge.builder("moodle.limiter.limit", limit, l -> l.limit).tag("wsfunction", wsfunction).register(meterRegistry);
+        Gauge.builder("moodle.limiter.inflight", limit, l -> l.inFlight).tag("wsfunction", wsfunction).register(meterRegistry);
+        Gauge.builder("moodle.limiter.queued", limit, l -> l.queued).tag("wsfunction", wsfunction).register(meterRegistry);
+        limit.rejected = Counter.builder("moodle.limiter.rejected").tag("wsfunction", wsfunction).register(meterRegistry);
+        return limit;
+    }
+
+    private Pool newPool(String operationType) {
+        int capacity = bulkheadRegistry.bulkhead(operationType).getBulkheadConfig().getMaxConcurrentCalls();
+        // Bulk calls always keep at least one slot
+        int reserved = Math.max(0, Math.min(interactiveReservedSlots, capacity - 1));
+        int bulkFloor = Math.min(capacity - reserved, (int) Math.ceil(capacity * bulkMinShare));
+        return new Pool(capacity, reserved, bulkFloor);
+    }
+
+    /**
+     * Slots of one operation type's bulkhead, shared by its functions; their state is
+     * guarded by the pool's monitor. Interactive calls are granted first and bulk calls
+     * never take the last reserved slots, but bulk calls are granted ahead of them while
+     * they hold fewer than the bulk floor, so a stream of interactive calls cannot starve them.
+     */
+    private static class Pool {
+
+        private final int capacity;
+        private final int reserved;
+        private final int bulkFloor;
+        private final Deque<Waiter> interactiveWaiters = new ArrayDeque<>();
+        private final Deque<Waiter> bulkWaiters = new ArrayDeque<>();
+        private int inFlight;
+        private int bulkInFlight;
+
+        Pool(int capacity, int reserved, int bulkFloor) {
+            this.capacity = capacity;
+            this.reserved = reserved;
+            this.bulkFloor = bulkFloor;
+        }
+
+        boolean hasRoom(FunctionLimit function, boolean interactive) {
+            return inFlight < (interactive ? capacity : capacity - reserved)
+                    && function.inFlight < (int) function.limit;
+        }
+
+        /**
+         * A new call may start at once, without passing the callers already queued ahead of it
+         */
+        boolean mayStart(FunctionLimit function, boolean interactive) {
+            return hasRoom(function, interactive)
+                    && (interactive || interactiveWaiters.isEmpty() || bulkInFlight < bulkFloor);
+        }
+
+        void take(FunctionLimit function, boolean interactive) {
+            inFlight++;
+            function.inFlight++;
+            if (!interactive) {
+                bulkInFlight++;
+            }
+        }
+
+        void free(FunctionLimit function, boolean interactive) {
+            inFlight--;
+            function.inFlight--;
+            if (!interactive) {
+                bulkInFlight--;
+            }
+        }
+
+        void enqueue(Waiter waiter) {
+            (waiter.interactive() ? interactiveWaiters : bulkWaiters).addLast(waiter);
+        }
+
+        /**
+         * Hand the free slots to queued callers that have not timed out: bulk callers up to
+         * the bulk floor, then interactive callers, then bulk callers, each in arrival order
+         */
+        List<Waiter> grant() {
+            List<Waiter> granted = new ArrayList<>();
+            grant(bulkWaiters, bulkFloor, granted);
+            grant(interactiveWaiters, capacity, granted);
+            grant(bulkWaiters, capacity, granted);
+            return granted;
+        }
+
+        // A caller whose function is at its limit does not hold back the other functions
+        private void grant(Deque<Waiter> waiters, int bulkCap, List<Waiter> granted) {
+            Iterator<Waiter> it = waiters.iterator();
+            while (inFlight < capacity && it.hasNext()) {
+                Waiter waiter = it.next();
+                if (waiter.future().isDone()) {
+                    it.remove();
+                    waiter.function().queued--;
+                } else if (hasRoom(waiter.function(), waiter.interactive())
+                        && (waiter.interactive() || bulkInFlight < bulkCap)) {
+                    it.remove();
+                    waiter.function().queued--;
+                    take(waiter.function(), waiter.interactive());
+                    granted.add(waiter);
+                }
+            }
+        }
+    }
+
+    private record Waiter(FunctionLimit function, boolean interactive, CompletableFuture<Void> future) {
+    }
+
+    private class FunctionLimit {
+
+        private final String wsfunction;
+        private final Pool pool;
+        private final int max;
+        private volatile double limit;
+        private volatile int inFlight;
+        private volatile int queued;
+        // System.nanoTime() of the last decrease
+        private long decreasedAt = System.nanoTime();
+        private Counter rejected;
+
+        FunctionLimit(String wsfunction, Pool pool, double limit, int max) {
+            this.wsfunction = wsfunction;
+            this.pool = pool;
+            this.limit = limit;
+            this.max = max;
+        }
+
+        CompletableFuture<Void> acquire(boolean interactive) {
+            synchronized (pool) {
+                if (pool.mayStart(this, interactive)) {
+                    pool.take(this, interactive);
+                    return CompletableFuture.completedFuture(null);
+                }
+                if (queued < maxQueue) {
+                    CompletableFuture<Void> waiter = new CompletableFuture<>();
+                    pool.enqueue(new Waiter(this, interactive, waiter));
+                    queued++;
+                    return waiter.orTimeout(queueTimeoutMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Moodle concurrency limit reached for " + wsfunction));
+        }
+
+        /**
+         * @param startedAt System.nanoTime() when the call started
+         * @param dropped   the call was slow or failed with overload
+         */
+        void release(boolean interactive, long startedAt, boolean dropped) {
+            List<Waiter> granted;
+            synchronized (pool) {
+                pool.free(this, interactive);
+                double previous = limit;
+                if (dropped) {
+                    // Calls started under the previous limit were already answered by its decrease
+                    if (startedAt - decreasedAt > 0) {
+                        limit = Math.max(minLimit, limit * backoffRatio);
+                        decreasedAt = System.nanoTime();
+                    }
+                } else {
+                    limit = Math.min(max, limit + 1.0 / limit);
+                }
+                if ((int) previous != (int) limit) {
+                    log.debug("[MoodleConcurrencyLimiter] Limite de {} ajustado: {} -> {}",
+                            wsfunction, (int) previous, (int) limit);
+                }
+                granted = pool.grant();
+            }
+            complete(granted);
+        }
+
+        /**
+         * Give back a slot that was granted to a caller who had already timed out
+         */
+        private void unused(boolean interactive) {
+            List<Waiter> granted;
+            synchronized (pool) {
+                pool.free(this, interactive);
+                granted = pool.grant();
+            }
+            complete(granted);
+        }
+
+    }
+
+    // Complete outside the lock: the callers start their HTTP call from here
+    private static void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (!waiter.future().complete(null)) {
+                waiter.function().unused(waiter.interactive());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.example.demo.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Moodle course ids keyed by shortname, the course identity used by get-or-create, so an
+ * already synchronized group resolves its course without calling Moodle
+ */
+@Component
+public class MoodleCourseCache {
+
+    private final Cache<String, Integer> byShortname;
+
+    public MoodleCourseCache(MeterRegistry meterRegistry,
+            @Value("${app.moodle.cache.courses.max-size:10000}") long maxSize,
+            @Value("${app.moodle.cache.courses.ttl-minutes:720}") long ttlMinutes) {
+        this.byShortname = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byShortname, "moodle.courses.byShortname");
+    }
+
+    public Integer getByShortname(String shortname) {
+        return shortname != null ? byShortname.getIfPresent(shortname) : null;
+    }
+
+    public void put(String shortname, Integer courseId) {
+        if (shortname != null && courseId != null) {
+            byShortname.put(shortname, courseId);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.CourseRequest;
+import com.example.demo.bens.MoodleCourse;
+import com.example.demo.bens.MoodleCourseFormatOption;
+import com.example.demo.bens.MoodleCustomField;
+import com.example.demo.bens.MoodleEnrolment;
+import com.example.demo.bens.MoodleUserRequest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes Moodle REST parameters (name[index][field]=value) as an
+ * application/x-www-form-urlencoded body, straight from the beans into bytes.
+ * Keys are never built as strings and numbers are written digit by digit; each
+ * thread reuses one scratch buffer, so a body costs a single exact-size copy.
+ */
+public final class MoodleFormEncoder {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    // A buffer grown past this size by a huge payload is not kept for the next body
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<MoodleFormEncoder> SCRATCH = ThreadLocal.withInitial(MoodleFormEncoder::new);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    private boolean inUse;
+
+    /**
+     * Fills a form body
+     */
+    @FunctionalInterface
+    public interface Writer {
+        void writeTo(MoodleFormEncoder form);
+    }
+
+    private MoodleFormEncoder() {
+    }
+
+    /**
+     * Encode a body with the calling thread's scratch buffer
+     *
+     * @return the encoded body, sized exactly
+     */
+    public static byte[] encode(Writer writer) {
+        MoodleFormEncoder form = SCRATCH.get();
+        if (form.inUse) {
+            // Writer that encodes another body while filling this one
+            form = new MoodleFormEncoder();
+        }
+        form.inUse = true;
+        form.length = 0;
+        try {
+            writer.writeTo(form);
+            return Arrays.copyOf(form.buffer, form.length);
+        } finally {
+            form.inUse = false;
+            if (form.buffer.length > MAX_RETAINED_CAPACITY) {
+                form.buffer = new byte[INITIAL_CAPACITY];
+            }
+        }
+    }
+
+    /**
+     * name=value; null values are left out, like the Moodle defaults they stand for
+     */
+    public MoodleFormEncoder field(String name, Object value) {
+        if (value != null) {
+            startField();
+            writeEncoded(name);
+            writeValue(value);
+        }
+        return this;
+    }
+
+    /**
+     * array[index]=value
+     */
+    public MoodleFormEncoder field(String array, int index, Object value) {
+        if (value != null) {
+            startField();
+            writeEncoded(array);
+            writeIndex(index);
+            writeValue(value);
+        }
+        return this;
+    }
+
+    /**
+     * array[index][field]=value
+     */
+    public MoodleFormEncoder field(String array, int index, String field, Object value) {
+        if (value != null) {
+            startField();
+            writeEncoded(array);
+            writeIndex(index);
+            writeSegment(field);
+            writeValue(value);
+        }
+        return this;
+    }
+
+    /**
+     * array[index][list][item][field]=value, for nested lists such as courseformatoptions
+     */
+    public MoodleFormEncoder field(String array, int index, String list, int item, String field, Object value) {
+        if (value != null) {
+            startField();
+            writeEncoded(array);
+            writeIndex(index);
+            writeSegment(list);
+            writeIndex(item);
+            writeSegment(field);
+            writeValue(value);
+        }
+        return this;
+    }
+
+    /**
+     * Fields already encoded by {@link #encode(Writer)}, appended as they are
+     */
+    public MoodleFormEncoder encoded(byte[] fields) {
+        if (fields.length > 0) {
+            startField();
+            ensure(fields.length);
+            System.arraycopy(fields, 0, buffer, length, fields.length);
+            length += fields.length;
+        }
+        return this;
+    }
+
+    public void course(int index, CourseRequest course) {
+        field("courses", index, "fullname", course.getFullname());
+        field("courses", index, "shortname", course.getShortname());
+        field("courses", index, "categoryid", course.getCategoryid());
+        if (course.getSummary() != null && !course.getSummary().isEmpty()) {
+            field("courses", index, "summary", course.getSummary());
+            field("courses", index, "summaryformat", 1);
+        }
+    }
+
+    public void course(int index, MoodleCourse course) {
+        field("courses", index, "fullname", course.getFullname());
+        field("courses", index, "shortname", course.getShortname());
+        field("courses", index, "categoryid", course.getCategoryid());
+        field("courses", index, "idnumber", course.getIdnumber());
+        field("courses", index, "summary", course.getSummary());
+        field("courses", index, "summaryformat", course.getSummaryformat());
+        field("courses", index, "format", course.getFormat());
+        field("courses", index, "showgrades", course.getShowgrades());
+        field("courses", index, "newsitems", course.getNewsitems());
+        field("courses", index, "startdate", course.getStartdate());
+        field("courses", index, "enddate", course.getEnddate());
+        field("courses", index, "numsections", course.getNumsections());
+        field("courses", index, "maxbytes", course.getMaxbytes());
+        field("courses", index, "showreports", course.getShowreports());
+        field("courses", index, "visible", course.getVisible());
+        field("courses", index, "hiddensections", course.getHiddensections());
+        field("courses", index, "groupmode", course.getGroupmode());
+        field("courses", index, "groupmodeforce", course.getGroupmodeforce());
+        field("courses", index, "defaultgroupingid", course.getDefaultgroupingid());
+        field("courses", index, "enablecompletion", course.getEnablecompletion());
+        field("courses", index, "completionnotify", course.getCompletionnotify());
+        field("courses", index, "lang", course.getLang());
+        field("courses", index, "forcetheme", course.getForcetheme());
+
+        List<MoodleCourseFormatOption> options = course.getCourseformatoptions();
+        if (options != null) {
+            for (int j = 0; j < options.size(); j++) {
+                field("courses", index, "courseformatoptions", j, "name", options.get(j).getName());
+                field("courses", index, "courseformatoptions", j, "value", options.get(j).getValue());
+            }
+        }
+        List<MoodleCustomField> customfields = course.getCustomfields();
+        if (customfields != null) {
+            for (int j = 0; j < customfields.size(); j++) {
+                field("courses", index, "customfields", j, "shortname", customfields.get(j).getShortname());
+                field("courses", index, "customfields", j, "value", customfields.get(j).getValue());
+            }
+        }
+    }
+
+    public void user(int index, MoodleUserRequest user) {
+        field("users", index, "username", user.getUsername().toLowerCase(Locale.ROOT));
+        field("users", index, "firstname", user.getFirstname());
+        field("users", index, "lastname",
+                user.getLastname() != null && !user.getLastname().isEmpty() ? user.getLastname() : "-");
+        field("users", index, "email",
+                user.getEmail() != null && !user.getEmail().isEmpty() ? user.getEmail() : "noreply@example.com");
+        field("users", index, "idnumber", user.getPersonId());
+        field("users", index, "auth", "db");
+        field("users", index, "country", "CV");
+        field("users", index, "lang", "pt");
+        field("users", index, "timezone", "Atlantic/Cape_Verde");
+    }
+
+    public void enrolment(int index, MoodleEnrolment enrolment) {
+        field("enrolments", index, "roleid", enrolment.getRoleid());
+        field("enrolments", index, "userid", enrolment.getUserid());
+        field("enrolments", index, "courseid", enrolment.getCourseid());
+    }
+
+    private void startField() {
+        if (length > 0) {
+            put((byte) '&');
+        }
+    }
+
+    private void writeSegment(String name) {
+        put3('%', '5', 'B');
+        writeEncoded(name);
+        put3('%', '5', 'D');
+    }
+
+    private void writeIndex(int index) {
+        put3('%', '5', 'B');
+        writeLong(index);
+        put3('%', '5', 'D');
+    }
+
+    private void writeValue(Object value) {
+        put((byte) '=');
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            writeLong(((Number) value).longValue());
+        } else {
+            writeEncoded(value.toString());
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value < 0) {
+            put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                writeEncoded("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        ensure(19);
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // digits were written least significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    /**
+     * URL-encode as UTF-8, with the same rules as URLEncoder (space as '+', "*-._" kept)
+     */
+    private void writeEncoded(String text) {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '*') {
+                put((byte) c);
+            } else if (c == ' ') {
+                put((byte) '+');
+            } else if (c < 0x80) {
+                putEscaped(c);
+            } else if (c < 0x800) {
+                putEscaped(0xC0 | (c >> 6));
+                putEscaped(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                putEscaped(0xF0 | (codePoint >> 18));
+                putEscaped(0x80 | ((codePoint >> 12) & 0x3F));
+                putEscaped(0x80 | ((codePoint >> 6) & 0x3F));
+                putEscaped(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like String.getBytes does
+                putEscaped('?');
+            } else {
+                putEscaped(0xE0 | (c >> 12));
+                putEscaped(0x80 | ((c >> 6) & 0x3F));
+                putEscaped(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void putEscaped(int b) {
+        ensure(3);
+        buffer[length++] = '%';
+        buffer[length++] = HEX[(b >> 4) & 0xF];
+        buffer[length++] = HEX[b & 0xF];
+    }
+
+    private void put3(char a, char b, char c) {
+        // The name or digits written before a closing bracket may have filled the buffer
+        ensure(3);
+        buffer[length++] = (byte) a;
+        buffer[length++] = (byte) b;
+        buffer[length++] = (byte) c;
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buffer[length++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
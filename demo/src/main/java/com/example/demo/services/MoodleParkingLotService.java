@@ -0,0 +1,446 @@
+package com.example.demo.services;
+
+import com.example.demo.producer.MoodleDeadLetterProducer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Inspection and replay of the parking lot, where messages land once their retry tiers
+ * are exhausted (see MoodleDeadLetterProducer). Messages are read with basic.get and
+ * stay unacked while they are looked at: browsing requeues all of them at the end, and
+ * a replay acks only those it republished to their original queue, after the broker
+ * confirmed the copy. Only one reader at a time, inspection or replay, since either one
+ * hides from the other the messages it holds unacked. A replay publishes at a fixed
+ * rate, so thousands of parked syncs go back to the listeners after an outage without
+ * hitting Moodle all at once.
+ */
+@Service
+public class MoodleParkingLotService {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleParkingLotService.class);
+
+    public static final String REPLAY_COUNT_HEADER = "x-replay-count";
+    public static final String REPLAYED_AT_HEADER = "x-replayed-at";
+
+    // Failure headers dropped on replay: the message starts its retry tiers again
+    private static final List<String> FAILURE_HEADERS = List.of(
+            MoodleDeadLetterProducer.RETRY_COUNT_HEADER,
+            MoodleDeadLetterProducer.ERROR_HEADER,
+            MoodleDeadLetterProducer.ERROR_TYPE_HEADER,
+            MoodleDeadLetterProducer.ORIGINAL_QUEUE_HEADER,
+            MoodleDeadLetterProducer.FAILED_AT_HEADER,
+            "x-death");
+
+    private final RabbitTemplate rabbitTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService replayer;
+    private final Map<String, ReplayJob> jobs = new ConcurrentHashMap<>();
+    // Inspection or replay holding the parked messages it read; null when none is reading
+    private final AtomicReference<String> reader = new AtomicReference<>();
+    private final Counter replayed;
+
+    @Value("${app.rabbitmq.parking-lot.queue}")
+    private String parkingLotQueue;
+
+    // Messages read at most by one inspection
+    @Value("${app.rabbitmq.parking-lot.scan-limit:5000}")
+    private int scanLimit;
+
+    @Value("${app.rabbitmq.parking-lot.replay-rate:20}")
+    private double defaultRate;
+
+    @Value("${app.rabbitmq.parking-lot.max-replay-rate:200}")
+    private double maxRate;
+
+    @Value("${app.rabbitmq.retry.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    // Finished replays kept for the progress endpoint
+    @Value("${app.rabbitmq.parking-lot.retained-jobs:20}")
+    private int retainedJobs;
+
+    public MoodleParkingLotService(RabbitTemplate rabbitTemplate, AmqpAdmin amqpAdmin, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.amqpAdmin = amqpAdmin;
+        this.objectMapper = objectMapper;
+        this.replayer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "moodle-parking-lot-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.replayed = Counter.builder("moodle.rabbit.messages.replayed")
+                .description("Parked messages republished to their original queue")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Selects parked messages; null fields match everything
+     *
+     * @param groupId   groupId of the sync request in the body
+     * @param errorType failure class of the last attempt (x-error-type)
+     * @param queue     queue the message failed on (x-original-queue)
+     */
+    public record Filter(String groupId, String errorType, String queue) {
+
+        boolean matches(Parked parked) {
+            return (isBlank(groupId) || groupId.equals(parked.groupId()))
+                    && (isBlank(errorType) || errorType.equalsIgnoreCase(parked.errorType()))
+                    && (isBlank(queue) || queue.equals(parked.originalQueue()));
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("groupId", groupId);
+            map.put("errorType", errorType);
+            map.put("queue", queue);
+            return map;
+        }
+
+        private static boolean isBlank(String value) {
+            return value == null || value.isBlank();
+        }
+    }
+
+    /**
+     * Look at the parked messages without consuming them
+     *
+     * @param limit matching messages to return
+     * @return the parking lot size, the messages scanned, counts of the scanned messages
+     *         by error type and original queue, and the first matching messages
+     * @throws IllegalStateException when a replay or another inspection is running
+     */
+    public Map<String, Object> inspect(Filter filter, int limit) {
+        acquireReader("Inspection");
+        try {
+            return scan(filter, limit);
+        } finally {
+            reader.set(null);
+        }
+    }
+
+    private Map<String, Object> scan(Filter filter, int limit) {
+        return rabbitTemplate.execute(channel -> {
+            long total = channel.messageCount(parkingLotQueue);
+            List<Map<String, Object>> messages = new ArrayList<>();
+            Map<String, Long> byErrorType = new TreeMap<>();
+            Map<String, Long> byQueue = new TreeMap<>();
+            long scanned = 0;
+            long matched = 0;
+            try {
+                while (scanned < Math.min(total, scanLimit)) {
+                    GetResponse response = channel.basicGet(parkingLotQueue, false);
+                    if (response == null) {
+                        break;
+                    }
+                    scanned++;
+                    Parked parked = parse(response);
+                    byErrorType.merge(String.valueOf(parked.errorType()), 1L, Long::sum);
+                    byQueue.merge(String.valueOf(parked.originalQueue()), 1L, Long::sum);
+                    if (filter.matches(parked)) {
+                        matched++;
+                        if (messages.size() < limit) {
+                            messages.add(parked.toMap());
+                        }
+                    }
+                }
+            } finally {
+                // Every message read goes back to the queue
+                channel.basicNack(0, true, true);
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("queue", parkingLotQueue);
+            result.put("total", total);
+            result.put("scanned", scanned);
+            result.put("matched", matched);
+            result.put("filter", filter.toMap());
+            result.put("byErrorType", byErrorType);
+            result.put("byQueue", byQueue);
+            result.put("messages", messages);
+            return result;
+        });
+    }
+
+    /**
+     * Start replaying the matching parked messages to their original queues
+     *
+     * @param max           messages to replay at most (0 = all that match)
+     * @param ratePerSecond publish rate, capped at app.rabbitmq.parking-lot.max-replay-rate
+     * @return the job, already running
+     * @throws IllegalStateException when another replay or an inspection is running
+     */
+    public ReplayJob replay(Filter filter, long max, Double ratePerSecond) {
+        double rate = Math.min(ratePerSecond != null && ratePerSecond > 0 ? ratePerSecond : defaultRate, maxRate);
+        ReplayJob job = new ReplayJob(UUID.randomUUID().toString(), filter, max, rate);
+        acquireReader("Replay " + job.id);
+        jobs.put(job.id, job);
+        evictFinishedJobs();
+        replayer.execute(() -> run(job));
+        log.info("[MoodleParkingLotService] Replay {} submitted: {} at {}/s", job.id, filter, rate);
+        return job;
+    }
+
+    /**
+     * Ask a running replay to stop after the current message
+     */
+    public Optional<ReplayJob> cancel(String id) {
+        ReplayJob job = jobs.get(id);
+        if (job != null) {
+            job.cancelled = true;
+        }
+        return Optional.ofNullable(job);
+    }
+
+    public Optional<ReplayJob> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public List<ReplayJob> getJobs() {
+        List<ReplayJob> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing((ReplayJob j) -> j.startedAt).reversed());
+        return list;
+    }
+
+    private void run(ReplayJob job) {
+        try {
+            rabbitTemplate.execute(channel -> {
+                replay(job, channel);
+                return null;
+            });
+            job.finish(job.cancelled ? "CANCELLED" : "COMPLETED", null);
+        } catch (Exception e) {
+            log.error("[MoodleParkingLotService] Replay {} failed: {}", job.id, e.getMessage(), e);
+            job.finish("FAILED", e.getMessage());
+        } finally {
+            reader.set(null);
+        }
+        log.info("[MoodleParkingLotService] Replay {} {}: {}", job.id, job.status, job.toMap());
+    }
+
+    /**
+     * Goes through the messages parked when the job started. Skipped messages stay unacked
+     * until the end, so they are not read twice; replayed ones are acked one by one.
+     */
+    private void replay(ReplayJob job, Channel channel) throws Exception {
+        channel.confirmSelect();
+        long total = channel.messageCount(parkingLotQueue);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / job.rate);
+        long nextPublish = System.nanoTime();
+        Map<String, Boolean> queueExists = new HashMap<>();
+        try {
+            for (long seen = 0; seen < total && !job.cancelled && (job.max <= 0 || job.replayed.get() < job.max); seen++) {
+                GetResponse response = channel.basicGet(parkingLotQueue, false);
+                if (response == null) {
+                    break;
+                }
+                job.scanned.incrementAndGet();
+                Parked parked = parse(response);
+                if (!job.filter.matches(parked)) {
+                    job.skipped.incrementAndGet();
+                    continue;
+                }
+                // Without its queue the default exchange would drop the message
+                if (parked.originalQueue() == null || !queueExists.computeIfAbsent(parked.originalQueue(),
+                        q -> amqpAdmin.getQueueInfo(q) != null)) {
+                    job.unroutable.incrementAndGet();
+                    continue;
+                }
+
+                long wait = nextPublish - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                nextPublish = Math.max(nextPublish, System.nanoTime()) + intervalNanos;
+
+                channel.basicPublish("", parked.originalQueue(), replayProperties(response.getProps()),
+                        response.getBody());
+                channel.waitForConfirmsOrDie(confirmTimeoutMs);
+                channel.basicAck(response.getEnvelope().getDeliveryTag(), false);
+                job.replayed.incrementAndGet();
+                replayed.increment();
+            }
+        } finally {
+            // Skipped messages go back to the parking lot
+            channel.basicNack(0, true, true);
+        }
+    }
+
+    private void acquireReader(String name) {
+        String current = reader.get();
+        if (current != null || !reader.compareAndSet(null, name)) {
+            throw new IllegalStateException((current != null ? current : reader.get()) + " is still running");
+        }
+    }
+
+    private static AMQP.BasicProperties replayProperties(AMQP.BasicProperties properties) {
+        Map<String, Object> headers = new HashMap<>();
+        if (properties.getHeaders() != null) {
+            headers.putAll(properties.getHeaders());
+        }
+        Object replays = headers.get(REPLAY_COUNT_HEADER);
+        FAILURE_HEADERS.forEach(headers::remove);
+        headers.put(REPLAY_COUNT_HEADER, (replays instanceof Number number ? number.intValue() : 0) + 1);
+        headers.put(REPLAYED_AT_HEADER, Instant.now().toString());
+        return properties.builder().headers(headers).build();
+    }
+
+    private Parked parse(GetResponse response) {
+        Map<String, Object> headers = response.getProps().getHeaders() != null
+                ? response.getProps().getHeaders() : Map.of();
+        String groupId = null;
+        String shortname = null;
+        try {
+            JsonNode root = objectMapper.readTree(response.getBody());
+            groupId = textOrNull(root.path("groupId"));
+            shortname = textOrNull(root.path("courseData").path("shortname"));
+            if (shortname == null) {
+                shortname = textOrNull(root.path("courses").path(0).path("shortname"));
+            }
+        } catch (Exception e) {
+            log.debug("[MoodleParkingLotService] Unreadable parked message body: {}", e.getMessage());
+        }
+        Object retryCount = headers.get(MoodleDeadLetterProducer.RETRY_COUNT_HEADER);
+        return new Parked(
+                header(headers, MoodleDeadLetterProducer.ORIGINAL_QUEUE_HEADER),
+                header(headers, MoodleDeadLetterProducer.ERROR_TYPE_HEADER),
+                header(headers, MoodleDeadLetterProducer.ERROR_HEADER),
+                header(headers, MoodleDeadLetterProducer.FAILED_AT_HEADER),
+                retryCount instanceof Number number ? number.intValue() : 0,
+                header(headers, REPLAY_COUNT_HEADER),
+                groupId,
+                shortname,
+                response.getBody().length);
+    }
+
+    // Header strings arrive as LongString
+    private static String header(Map<String, Object> headers, String name) {
+        Object value = headers.get(name);
+        return value != null ? value.toString() : null;
+    }
+
+    private static String textOrNull(JsonNode node) {
+        return node.isMissingNode() || node.isNull() || node.asText().isEmpty() ? null : node.asText();
+    }
+
+    private void evictFinishedJobs() {
+        List<ReplayJob> finished = getJobs().stream().filter(j -> j.finishedAt != null).toList();
+        for (int i = retainedJobs; i < finished.size(); i++) {
+            jobs.remove(finished.get(i).id);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(job -> job.cancelled = true);
+        replayer.shutdown();
+    }
+
+    private record Parked(String originalQueue, String errorType, String error, String failedAt, int retryCount,
+            String replayCount, String groupId, String shortname, int bytes) {
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("originalQueue", originalQueue);
+            map.put("errorType", errorType);
+            map.put("error", error);
+            map.put("failedAt", failedAt);
+            map.put("retryCount", retryCount);
+            map.put("replayCount", replayCount != null ? Integer.parseInt(replayCount) : 0);
+            map.put("groupId", groupId);
+            map.put("shortname", shortname);
+            map.put("bytes", bytes);
+            return map;
+        }
+    }
+
+    /**
+     * Progress of one replay
+     */
+    public static final class ReplayJob {
+
+        private final String id;
+        private final Filter filter;
+        private final long max;
+        private final double rate;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong replayed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong unroutable = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile String status = "RUNNING";
+        private volatile String error;
+        private volatile Instant finishedAt;
+
+        private ReplayJob(String id, Filter filter, long max, double rate) {
+            this.id = id;
+            this.filter = filter;
+            this.max = max;
+            this.rate = rate;
+        }
+
+        private void finish(String status, String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.status = status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Map<String, Object> toMap() {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            double seconds = Math.max(Duration.between(startedAt, end).toMillis(), 1) / 1000.0;
+
+            Map<String, Object> map = new HashMap<>();
+            map.put("jobId", id);
+            map.put("status", status);
+            map.put("filter", filter.toMap());
+            map.put("max", max);
+            map.put("ratePerSecond", rate);
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            map.put("scanned", scanned.get());
+            map.put("replayed", replayed.get());
+            map.put("skipped", skipped.get());
+            map.put("unroutable", unroutable.get());
+            map.put("replayedPerSecond", Math.round(replayed.get() / seconds * 100) / 100.0);
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+}
@@ -1,39 +1,82 @@
 package com.example.demo.services;
 
 import com.example.demo.bens.CourseRequest;
+import com.example.demo.bens.MoodleCourse;
+import com.example.demo.bens.MoodleCourseList;
+import com.example.demo.bens.MoodleCourseSummary;
+import com.example.demo.bens.MoodleCreatedCourse;
+import com.example.demo.bens.MoodleEnrolledUser;
+import com.example.demo.bens.MoodleEnrolment;
+import com.example.demo.bens.MoodleUserRequest;
+import com.example.demo.bens.MoodleUserSummary;
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 @Service
 public class MoodleService {
 
     private static final Logger log = LoggerFactory.getLogger(MoodleService.class);
 
-    @Value("${app.moodle.url}")
-    private String moodleUrl;
+    private static final TypeReference<List<MoodleCreatedCourse>> CREATED_COURSES = new TypeReference<>() {
+    };
 
-    @Value("${app.moodle.token}")
-    private String moodleToken;
+    private static final TypeReference<List<MoodleUserSummary>> USERS = new TypeReference<>() {
+    };
+
+    private static final TypeReference<List<MoodleEnrolledUser>> ENROLLED_USERS = new TypeReference<>() {
+    };
+
+    // enrol_manual_enrol_users and enrol_manual_unenrol_users answer null
+    private static final TypeReference<Void> NO_CONTENT = new TypeReference<>() {
+    };
 
     @Value("${app.moodle.create-function:core_course_create_courses}")
     private String createFunction;
 
-    @Value("${app.moodle.format:json}")
-    private String format;
+    @Value("${app.moodle.batch.course-size:50}")
+    private int courseBatchSize;
+
+    @Value("${app.moodle.batch.enrol-size:100}")
+    private int enrolBatchSize;
+
+    @Value("${app.moodle.batch.user-lookup-size:100}")
+    private int userLookupBatchSize;
+
+    @Value("${app.moodle.batch.user-create-size:50}")
+    private int userCreateBatchSize;
+
+    // Número máximo de lotes em curso por operação em lote
+    @Value("${app.moodle.batch.concurrency:4}")
+    private int batchConcurrency;
+
+    // Códigos de erro do Moodle causados por um item do lote (o lote é dividido para o isolar)
+    @Value("${app.moodle.batch.split-error-codes:shortnametaken,idnumbertaken,invalidparameter,invaliduser,wsusercannotassign,wscannotenrol}")
+    private Set<String> splitErrorCodes;
 
-    private final RestTemplate restTemplate;
+    private final MoodleClient moodleClient;
 
-    public MoodleService() {
-        this.restTemplate = new RestTemplate();
+    private final MoodleAsyncService moodleAsyncService;
+
+    private final MoodleUserIdCache userIdCache;
+
+    private final MoodleCourseCache courseCache;
+
+    public MoodleService(MoodleClient moodleClient, MoodleAsyncService moodleAsyncService,
+            MoodleUserIdCache userIdCache, MoodleCourseCache courseCache) {
+        this.moodleClient = moodleClient;
+        this.moodleAsyncService = moodleAsyncService;
+        this.userIdCache = userIdCache;
+        this.courseCache = courseCache;
     }
 
     /**
@@ -43,75 +86,228 @@ public class MoodleService {
      * @return Response from Moodle API
      */
     public Map<String, Object> createCourse(CourseRequest request) {
-        log.info("[MoodleService.createCourse] Iniciando criação de curso: {}", request.getFullname());
-        try {
-            // Build form data with proper Moodle parameter format
-            MultiValueMap<String, String> formData = new LinkedMultiValueMap<>();
-
-            // Required parameters
-            formData.add("wstoken", moodleToken);
-            formData.add("wsfunction", createFunction);
-            formData.add("moodlewsrestformat", format);
-
-            // Course data in Moodle format: courses[0][fieldname]=value
-            formData.add("courses[0][fullname]", request.getFullname());
-            formData.add("courses[0][shortname]", request.getShortname());
-            formData.add("courses[0][categoryid]", request.getCategoryid().toString());
-
-            if (request.getSummary() != null && !request.getSummary().isEmpty()) {
-                formData.add("courses[0][summary]", request.getSummary());
-                formData.add("courses[0][summaryformat]", "1");
-            }
+        return moodleAsyncService.createCourseAsync(request).join();
+    }
+
+    /**
+     * Resolve the Moodle id of a course, creating it only when it does not exist yet.
+     * Looks in MoodleCourseCache first, then core_course_get_courses_by_field by shortname,
+     * and finally creates the course. A concurrent creation (shortnametaken) is resolved
+     * by looking the course up again.
+     *
+     * @param request course data; the shortname identifies the course
+     * @return Moodle course id
+     */
+    public Integer getOrCreateCourse(CourseRequest request) {
+        return getOrCreateCourseAsync(request).join();
+    }
 
-            log.debug(
-                    "[MoodleService.createCourse] Parâmetros da requisição: wstoken={}, wsfunction={}, fullname={}, shortname={}, categoryid={}",
-                    "***", createFunction, request.getFullname(), request.getShortname(), request.getCategoryid());
+    public CompletableFuture<Integer> getOrCreateCourseAsync(CourseRequest request) {
+        Integer cached = courseCache.getByShortname(request.getShortname());
+        if (cached != null) {
+            log.debug("[MoodleService.getOrCreateCourse] Curso {} em cache: {}", request.getShortname(), cached);
+            return CompletableFuture.completedFuture(cached);
+        }
 
-            // Build URL
-            String url = moodleUrl;
-            log.info("[MoodleService.createCourse] URL do Moodle: {}", url);
+        return findCourseId("shortname", request.getShortname())
+                .thenCompose(existing -> {
+                    if (existing != null) {
+                        log.info("[MoodleService.getOrCreateCourse] Curso {} já existe no Moodle: {}",
+                                request.getShortname(), existing);
+                        return CompletableFuture.completedFuture(existing);
+                    }
+                    log.info("[MoodleService.getOrCreateCourse] Criando curso: {}", request.getFullname());
+                    return moodleClient.call(createFunction, form -> form.course(0, request), CREATED_COURSES)
+                            .thenApply(created -> created.get(0).id())
+                            .exceptionallyCompose(e -> {
+                                Throwable cause = MoodleClient.unwrap(e);
+                                if (cause instanceof MoodleWebServiceException moodleError
+                                        && "shortnametaken".equals(moodleError.getErrorCode())) {
+                                    return findCourseId("shortname", request.getShortname());
+                                }
+                                return CompletableFuture.failedFuture(cause);
+                            });
+                })
+                .thenApply(courseId -> {
+                    courseCache.put(request.getShortname(), courseId);
+                    return courseId;
+                });
+    }
 
-            // Set headers for form-urlencoded
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+    /**
+     * Look up a course id with core_course_get_courses_by_field
+     *
+     * @param field shortname, idnumber or id
+     * @return future with the course id, or null when no course matches
+     */
+    private CompletableFuture<Integer> findCourseId(String field, String value) {
+        MoodleFormEncoder.Writer params = form -> form.field("field", field).field("value", value);
 
-            // Create entity with form data
-            HttpEntity<MultiValueMap<String, String>> entity = new HttpEntity<>(formData, headers);
+        return moodleClient.call("core_course_get_courses_by_field", params, MoodleCourseList.class).thenApply(body -> {
+            if (body.courses().isEmpty()) {
+                return null;
+            }
+            MoodleCourseSummary course = body.courses().get(0);
+            courseCache.put(course.shortname(), course.id());
+            return course.id();
+        });
+    }
 
-            log.debug("[MoodleService.createCourse] Enviando POST request para: {}", url);
+    /**
+     * Create several courses with a single core_course_create_courses call per chunk.
+     * Courses are packed as courses[i][field] in chunks of app.moodle.batch.course-size.
+     * Moodle rejects a whole chunk when one course is invalid, so a rejected chunk is
+     * split in halves until the error can be attributed to the course that caused it.
+     *
+     * @param courses courses to create
+     * @return one result per input course, in the same order
+     */
+    public List<Map<String, Object>> createCourses(List<MoodleCourse> courses) {
+        log.info("[MoodleService.createCourses] Criando {} cursos em lotes de {}", courses.size(), courseBatchSize);
+
+        List<Map<String, Object>> results = new ArrayList<>(Collections.nCopies(courses.size(), null));
+        List<Supplier<CompletableFuture<Void>>> chunks = new ArrayList<>();
+
+        for (int from = 0; from < courses.size(); from += courseBatchSize) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + courseBatchSize, courses.size());
+            chunks.add(() -> postSplitting(createFunction, courses, chunkFrom, chunkTo, MoodleFormEncoder::course,
+                    CREATED_COURSES,
+                    (okFrom, okTo, created) -> {
+                        for (int i = okFrom; i < okTo; i++) {
+                            int courseId = created.get(i - okFrom).id();
+                            courseCache.put(courses.get(i).getShortname(), courseId);
+                            results.set(i, courseResult(courses.get(i), "SUCCESS", courseId, null));
+                        }
+                        log.info("[MoodleService.createCourses] Lote de {} cursos criado com sucesso", okTo - okFrom);
+                    },
+                    (index, error) -> {
+                        log.error("[MoodleService.createCourses] Erro ao criar curso {}: {}",
+                                courses.get(index).getShortname(), error.getMessage());
+                        Map<String, Object> failed = courseResult(courses.get(index), "ERROR", null, error.getMessage());
+                        // Moodle rejected the course itself; transport errors may succeed later
+                        failed.put("retryable", !(error instanceof MoodleWebServiceException));
+                        failed.put("errorType", error.getClass().getSimpleName());
+                        results.set(index, failed);
+                    }));
+        }
+        runBounded(chunks).join();
+        return results;
+    }
 
-            // Make HTTP POST request
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, entity, Map.class);
+    private Map<String, Object> courseResult(MoodleCourse course, String status, Object id, String error) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("course", course.getFullname());
+        result.put("shortname", course.getShortname());
+        result.put("status", status);
+        if (id != null) {
+            result.put("id", id);
+        }
+        if (error != null) {
+            result.put("error", error);
+        }
+        return result;
+    }
 
-            log.info("[MoodleService.createCourse] Resposta recebida - Status Code: {}", response.getStatusCode());
-            log.debug("[MoodleService.createCourse] Corpo da resposta: {}", response.getBody());
+    /**
+     * Enroll many users with enrol_manual_enrol_users.
+     * Enrolments are sent as enrolments[i][field] in chunks of app.moodle.batch.enrol-size,
+     * with at most app.moodle.batch.concurrency chunks in flight.
+     *
+     * @param enrolments enrolments to apply
+     * @return one outcome per input enrolment, in the same order
+     */
+    public List<Map<String, Object>> enrollUsers(List<MoodleEnrolment> enrolments) {
+        log.info("[MoodleService.enrollUsers] Inscrevendo {} usuários em lotes de {}",
+                enrolments.size(), enrolBatchSize);
+        List<Map<String, Object>> results = applyEnrolments("enrol_manual_enrol_users", enrolments);
+
+        long failed = results.stream().filter(r -> !(Boolean) r.get("success")).count();
+        log.info("[MoodleService.enrollUsers] Inscrições concluídas: {} com sucesso, {} com falha",
+                enrolments.size() - failed, failed);
+        return results;
+    }
 
-            if (response.getStatusCode() == HttpStatus.OK) {
-                Map<String, Object> body = response.getBody();
+    /**
+     * Remove manual enrolments with enrol_manual_unenrol_users, in the same chunks as enrollUsers.
+     * Moodle drops the whole enrolment of the user in the course, whatever the role.
+     *
+     * @param enrolments enrolments to remove (username, userid, courseid; roleid is informative)
+     * @return one outcome per input enrolment, in the same order
+     */
+    public List<Map<String, Object>> unenrollUsers(List<MoodleEnrolment> enrolments) {
+        log.info("[MoodleService.unenrollUsers] Removendo {} inscrições", enrolments.size());
+        List<Map<String, Object>> results = applyEnrolments("enrol_manual_unenrol_users", enrolments);
+
+        long failed = results.stream().filter(r -> !(Boolean) r.get("success")).count();
+        log.info("[MoodleService.unenrollUsers] Remoções concluídas: {} com sucesso, {} com falha",
+                enrolments.size() - failed, failed);
+        return results;
+    }
 
-                // Check for Moodle error in response
-                if (body != null && body.containsKey("exception")) {
-                    String exception = (String) body.get("exception");
-                    String message = (String) body.getOrDefault("message", "Erro desconhecido");
-                    log.error("[MoodleService.createCourse] ERRO do Moodle: {} - {}", exception, message);
-                    return createErrorResponse(String.format("Moodle Error: %s - %s", exception, message), 400);
-                }
+    private List<Map<String, Object>> applyEnrolments(String wsfunction, List<MoodleEnrolment> enrolments) {
+        List<Map<String, Object>> results = new ArrayList<>(Collections.nCopies(enrolments.size(), null));
+        List<Supplier<CompletableFuture<Void>>> chunks = new ArrayList<>();
+
+        for (int from = 0; from < enrolments.size(); from += enrolBatchSize) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + enrolBatchSize, enrolments.size());
+            chunks.add(() -> postSplitting(wsfunction, enrolments, chunkFrom, chunkTo,
+                    MoodleFormEncoder::enrolment, NO_CONTENT,
+                    (okFrom, okTo, body) -> {
+                        for (int i = okFrom; i < okTo; i++) {
+                            results.set(i, enrolmentResult(enrolments.get(i), null));
+                        }
+                    },
+                    (index, error) -> {
+                        log.warn("[MoodleService.{}] Falha para {}: {}",
+                                wsfunction, enrolments.get(index).getUsername(), error.getMessage());
+                        results.set(index, enrolmentResult(enrolments.get(index), error.getMessage()));
+                    }));
+        }
+        runBounded(chunks).join();
+        return results;
+    }
 
-                log.info("[MoodleService.createCourse] Curso criado com sucesso! Resposta: {}", body);
-                return body != null ? body : createSuccessResponse("Curso criado com sucesso");
-            } else {
-                log.error("[MoodleService.createCourse] Falha ao criar curso - Status: {} - Body: {}",
-                        response.getStatusCode(), response.getBody());
-                return createErrorResponse(
-                        String.format("Failed to create course. HTTP Status: %d", response.getStatusCode().value()),
-                        response.getStatusCode().value());
+    /**
+     * Current enrolments of a course (core_enrol_get_enrolled_users), fetched once per sync.
+     * Only id, username, idnumber and roles are requested, and every user id seen is put in
+     * MoodleUserIdCache, so provisioning those users later costs no call.
+     *
+     * @param courseId Moodle course ID
+     * @return enrolled users with their roles in the course
+     */
+    public List<MoodleEnrolledUser> getEnrolledUsers(Integer courseId) {
+        MoodleFormEncoder.Writer params = form -> form
+                .field("courseid", courseId)
+                .field("options", 0, "name", "userfields")
+                .field("options", 0, "value", "id,username,idnumber,roles");
+
+        List<MoodleEnrolledUser> enrolled = moodleClient.call("core_enrol_get_enrolled_users", params, ENROLLED_USERS)
+                .join();
+        if (enrolled == null) {
+            return List.of();
+        }
+        for (MoodleEnrolledUser user : enrolled) {
+            if (user.username() != null) {
+                userIdCache.put(user.idnumber(), user.username(), user.id());
             }
+        }
+        log.info("[MoodleService.getEnrolledUsers] Curso {} tem {} usuários inscritos", courseId, enrolled.size());
+        return enrolled;
+    }
 
-        } catch (Exception e) {
-            log.error("[MoodleService.createCourse] EXCEÇÃO ao criar curso - Mensagem: {}", e.getMessage(), e);
-            e.printStackTrace();
-            return createErrorResponse(String.format("Erro ao criar curso: %s", e.getMessage()), 500);
+    private Map<String, Object> enrolmentResult(MoodleEnrolment enrolment, String error) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("username", enrolment.getUsername());
+        result.put("userid", enrolment.getUserid());
+        result.put("courseid", enrolment.getCourseid());
+        result.put("roleid", enrolment.getRoleid());
+        result.put("success", error == null);
+        if (error != null) {
+            result.put("error", error);
         }
+        return result;
     }
 
     /**
@@ -123,45 +319,115 @@ public class MoodleService {
      * @return Response from Moodle API
      */
     public Map<String, Object> enrollUser(Integer userId, Integer courseId, Integer roleId) {
-        log.info("[MoodleService.enrollUser] Enrolando usuário {} no curso {} com role {}", userId, courseId, roleId);
-
-        try {
-            Map<String, Object> enrollment = new HashMap<>();
-            enrollment.put("userid", userId);
-            enrollment.put("courseid", courseId);
-            enrollment.put("roleid", roleId);
-
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("enrolments", Collections.singletonList(enrollment));
-
-            String url = UriComponentsBuilder.fromHttpUrl(moodleUrl)
-                    .queryParam("wstoken", moodleToken)
-                    .queryParam("wsfunction", "enrol_manual_enrol_users")
-                    .queryParam("moodlewsrestformat", format)
-                    .toUriString();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-
-            log.debug("[MoodleService.enrollUser] Enviando POST request para inscrição");
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, entity, Map.class);
-
-            log.info("[MoodleService.enrollUser] Resposta recebida - Status Code: {}", response.getStatusCode());
+        return moodleAsyncService.enrollUserAsync(userId, courseId, roleId).join();
+    }
 
-            if (response.getStatusCode() == HttpStatus.OK) {
-                log.info("[MoodleService.enrollUser] Usuário inscrito com sucesso");
-                return response.getBody();
+    /**
+     * Make sure every user exists in Moodle and resolve their Moodle ids.
+     * Users already in MoodleUserIdCache cost no call at all; the others are looked up in
+     * bulk with core_user_get_users_by_field (by username), and only the missing ones are
+     * created with core_user_create_users in chunks of app.moodle.batch.user-create-size.
+     * A failed lookup chunk only costs its own users, which are neither created nor returned.
+     *
+     * @param users users to provision
+     * @return username to Moodle user id; users that could not be provisioned are absent
+     */
+    public Map<String, Integer> provisionUsers(List<MoodleUserRequest> users) {
+        // Moodle stores usernames in lower case
+        Map<String, MoodleUserRequest> byUsername = new LinkedHashMap<>();
+        for (MoodleUserRequest user : users) {
+            if (user.getUsername() != null && !user.getUsername().isEmpty()) {
+                byUsername.putIfAbsent(user.getUsername().toLowerCase(Locale.ROOT), user);
+            }
+        }
+        log.info("[MoodleService.provisionUsers] Provisionando {} usuários", byUsername.size());
+
+        Map<String, Integer> resolved = new ConcurrentHashMap<>();
+        List<String> toLookup = new ArrayList<>();
+        byUsername.forEach((username, user) -> {
+            Integer cached = userIdCache.get(user.getPersonId(), username);
+            if (cached != null) {
+                resolved.put(username, cached);
             } else {
-                log.error("[MoodleService.enrollUser] Falha ao inscrever usuário. Status: {}",
-                        response.getStatusCode());
-                return createErrorResponse("Failed to enroll user", response.getStatusCode().value());
+                toLookup.add(username);
+            }
+        });
+        int cachedCount = resolved.size();
+        // Users whose lookup failed are not created blindly; they are left unprovisioned
+        Set<String> lookupFailed = ConcurrentHashMap.newKeySet();
+        lookupUserIds(toLookup, resolved, lookupFailed).join();
+
+        List<MoodleUserRequest> missing = new ArrayList<>();
+        byUsername.forEach((username, user) -> {
+            if (!resolved.containsKey(username) && !lookupFailed.contains(username)) {
+                missing.add(user);
+            }
+        });
+        log.info("[MoodleService.provisionUsers] {} usuários em cache, {} encontrados no Moodle, {} serão criados, "
+                + "{} por verificar", cachedCount, resolved.size() - cachedCount, missing.size(), lookupFailed.size());
+
+        List<Supplier<CompletableFuture<Void>>> chunks = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += userCreateBatchSize) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + userCreateBatchSize, missing.size());
+            chunks.add(() -> postSplitting("core_user_create_users", missing, chunkFrom, chunkTo, MoodleFormEncoder::user,
+                    USERS,
+                    (okFrom, okTo, created) -> {
+                        for (MoodleUserSummary user : created) {
+                            resolved.put(user.username().toLowerCase(Locale.ROOT), user.id());
+                        }
+                    },
+                    (index, error) -> log.error("[MoodleService.provisionUsers] Falha ao criar usuário {}: {}",
+                            missing.get(index).getUsername(), error.getMessage())));
+        }
+        runBounded(chunks).join();
+
+        // Answer with the usernames as the caller sent them
+        Map<String, Integer> userIds = new LinkedHashMap<>();
+        byUsername.forEach((username, user) -> {
+            Integer id = resolved.get(username);
+            if (id != null) {
+                userIdCache.put(user.getPersonId(), username, id);
+                userIds.put(user.getUsername(), id);
             }
+        });
+        return userIds;
+    }
 
-        } catch (Exception e) {
-            log.error("[MoodleService.enrollUser] Erro ao inscrever usuário no Moodle: {}", e.getMessage(), e);
-            return createErrorResponse(e.getMessage(), 500);
+    /**
+     * Look up existing Moodle users by username, in parallel chunks.
+     * A chunk that fails adds its usernames to failed; the other chunks still complete.
+     */
+    private CompletableFuture<Void> lookupUserIds(List<String> usernames, Map<String, Integer> found,
+            Set<String> failed) {
+        if (usernames.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
         }
+        List<Supplier<CompletableFuture<Void>>> chunks = new ArrayList<>();
+
+        for (int from = 0; from < usernames.size(); from += userLookupBatchSize) {
+            List<String> chunk = usernames.subList(from, Math.min(from + userLookupBatchSize, usernames.size()));
+            chunks.add(() -> {
+                MoodleFormEncoder.Writer params = form -> {
+                    form.field("field", "username");
+                    for (int i = 0; i < chunk.size(); i++) {
+                        form.field("values", i, chunk.get(i));
+                    }
+                };
+                return moodleClient.call("core_user_get_users_by_field", params, USERS).thenAccept(users -> {
+                    for (MoodleUserSummary user : users) {
+                        found.put(user.username().toLowerCase(Locale.ROOT), user.id());
+                    }
+                }).exceptionally(e -> {
+                    Throwable cause = MoodleClient.unwrap(e);
+                    log.error("[MoodleService.provisionUsers] Falha ao procurar {} usuários: {}",
+                            chunk.size(), cause.getMessage(), cause);
+                    failed.addAll(chunk);
+                    return null;
+                });
+            });
+        }
+        return runBounded(chunks);
     }
 
     /**
@@ -174,50 +440,7 @@ public class MoodleService {
      * @return Response from Moodle API
      */
     public Map<String, Object> createUser(String username, String firstName, String lastName, String email) {
-        log.info("[MoodleService.createUser] Criando usuário no Moodle: {}", username);
-
-        try {
-            Map<String, Object> user = new HashMap<>();
-            user.put("username", username);
-            user.put("firstname", firstName);
-            user.put("lastname", lastName);
-            user.put("email", email != null && !email.isEmpty() ? email : "noreply@example.com");
-            user.put("auth", "db");
-            user.put("confirmed", 1);
-            user.put("country", "CV");
-            user.put("lang", "pt");
-            user.put("timezone", "Atlantic/Cape_Verde");
-
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("users", Collections.singletonList(user));
-
-            String url = UriComponentsBuilder.fromHttpUrl(moodleUrl)
-                    .queryParam("wstoken", moodleToken)
-                    .queryParam("wsfunction", "core_user_create_users")
-                    .queryParam("moodlewsrestformat", format)
-                    .toUriString();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-
-            log.debug("[MoodleService.createUser] Enviando POST request para criação de usuário");
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, entity, Map.class);
-
-            log.info("[MoodleService.createUser] Resposta recebida - Status Code: {}", response.getStatusCode());
-
-            if (response.getStatusCode() == HttpStatus.OK) {
-                log.info("[MoodleService.createUser] Usuário criado com sucesso: {}", response.getBody());
-                return response.getBody();
-            } else {
-                log.error("[MoodleService.createUser] Falha ao criar usuário. Status: {}", response.getStatusCode());
-                return createErrorResponse("Failed to create user", response.getStatusCode().value());
-            }
-
-        } catch (Exception e) {
-            log.error("[MoodleService.createUser] Erro ao criar usuário no Moodle: {}", e.getMessage(), e);
-            return createErrorResponse(e.getMessage(), 500);
-        }
+        return moodleAsyncService.createUserAsync(username, firstName, lastName, email).join();
     }
 
     /**
@@ -227,30 +450,7 @@ public class MoodleService {
      * @return Course details or null if not found
      */
     public Map<String, Object> getCourseByName(String courseName) {
-        log.info("Searching for course: {}", courseName);
-
-        try {
-            String url = UriComponentsBuilder.fromHttpUrl(moodleUrl)
-                    .queryParam("wstoken", moodleToken)
-                    .queryParam("wsfunction", "core_course_search_courses")
-                    .queryParam("criterianame", "search")
-                    .queryParam("criteriavalue", courseName)
-                    .queryParam("moodlewsrestformat", format)
-                    .toUriString();
-
-            ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                log.info("Course search completed: {}", response.getBody());
-                return response.getBody();
-            } else {
-                return createErrorResponse("Course not found", 404);
-            }
-
-        } catch (Exception e) {
-            log.error("Error searching for course in Moodle", e);
-            return createErrorResponse(e.getMessage(), 500);
-        }
+        return moodleAsyncService.getCourseByNameAsync(courseName).join();
     }
 
     /**
@@ -262,39 +462,7 @@ public class MoodleService {
      * @return Response from Moodle API
      */
     public Map<String, Object> updateCourseSection(Integer courseId, Integer sectionId, String summary) {
-        log.info("Updating course section {} for course {}", sectionId, courseId);
-
-        try {
-            Map<String, Object> section = new HashMap<>();
-            section.put("id", sectionId);
-            section.put("summary", summary);
-
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("sections", Collections.singletonList(section));
-
-            String url = UriComponentsBuilder.fromHttpUrl(moodleUrl)
-                    .queryParam("wstoken", moodleToken)
-                    .queryParam("wsfunction", "core_course_update_courses")
-                    .queryParam("moodlewsrestformat", format)
-                    .toUriString();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, entity, Map.class);
-
-            if (response.getStatusCode() == HttpStatus.OK) {
-                log.info("Course section updated successfully");
-                return response.getBody();
-            } else {
-                return createErrorResponse("Failed to update section", response.getStatusCode().value());
-            }
-
-        } catch (Exception e) {
-            log.error("Error updating course section in Moodle", e);
-            return createErrorResponse(e.getMessage(), 500);
-        }
+        return moodleAsyncService.updateCourseSectionAsync(courseId, sectionId, summary).join();
     }
 
     /**
@@ -318,35 +486,18 @@ public class MoodleService {
         List<String> successfulEnrollments = new ArrayList<>();
         List<String> failedEnrollments = new ArrayList<>();
 
-        // Enroll students (role 5)
-        for (Map<String, Object> student : students) {
-            try {
-                String username = (String) student.get("username");
-                Integer userId = (Integer) student.get("userid");
-
-                if (userId != null) {
-                    enrollUser(userId, courseId, 5); // Role 5 = Student
-                    successfulEnrollments.add("Student: " + username);
-                }
-            } catch (Exception e) {
-                log.error("Failed to enroll student", e);
-                failedEnrollments.add("Student: " + student.get("username"));
-            }
-        }
+        // Students (role 5) and teachers (role 3) go out in the same bulk request
+        List<MoodleEnrolment> enrolments = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        collectEnrolments(students, courseId, 5, "Student: ", enrolments, labels);
+        collectEnrolments(teachers, courseId, 3, "Teacher: ", enrolments, labels);
 
-        // Enroll teachers (role 3)
-        for (Map<String, Object> teacher : teachers) {
-            try {
-                String username = (String) teacher.get("username");
-                Integer userId = (Integer) teacher.get("userid");
-
-                if (userId != null) {
-                    enrollUser(userId, courseId, 3); // Role 3 = Teacher
-                    successfulEnrollments.add("Teacher: " + username);
-                }
-            } catch (Exception e) {
-                log.error("Failed to enroll teacher", e);
-                failedEnrollments.add("Teacher: " + teacher.get("username"));
+        List<Map<String, Object>> outcomes = enrollUsers(enrolments);
+        for (int i = 0; i < outcomes.size(); i++) {
+            if ((Boolean) outcomes.get(i).get("success")) {
+                successfulEnrollments.add(labels.get(i));
+            } else {
+                failedEnrollments.add(labels.get(i));
             }
         }
 
@@ -363,24 +514,105 @@ public class MoodleService {
         return result;
     }
 
+    private void collectEnrolments(List<Map<String, Object>> users, Integer courseId, int roleId, String label,
+            List<MoodleEnrolment> enrolments, List<String> labels) {
+        for (Map<String, Object> user : users) {
+            String username = (String) user.get("username");
+            Integer userId = (Integer) user.get("userid");
+            if (userId != null) {
+                enrolments.add(new MoodleEnrolment(username, userId, courseId, roleId));
+                labels.add(label + username);
+            }
+        }
+    }
+
     /**
-     * Helper method to create success response
+     * Post items [from, to) as one array call to a Moodle function.
+     * A Moodle error rejects the whole call; when its code blames one item
+     * (app.moodle.batch.split-error-codes) the range is split in halves until the failing
+     * item is isolated. Any other error fails the whole range at once, since every item
+     * would fail the same way.
      */
-    private Map<String, Object> createSuccessResponse(String message) {
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", true);
-        response.put("message", message);
-        return response;
+    private <T, R> CompletableFuture<Void> postSplitting(String wsfunction, List<T> items, int from, int to,
+            ItemWriter<T> writer, TypeReference<R> responseType, ChunkHandler<R> onSuccess,
+            BiConsumer<Integer, Exception> onItemError) {
+        MoodleFormEncoder.Writer params = form -> {
+            for (int i = from; i < to; i++) {
+                writer.write(form, i - from, items.get(i));
+            }
+        };
+
+        return moodleClient.call(wsfunction, params, responseType)
+                .thenAccept(body -> onSuccess.handle(from, to, body))
+                .exceptionallyCompose(e -> {
+                    Throwable cause = MoodleClient.unwrap(e);
+                    if (cause instanceof MoodleWebServiceException moodleError && to - from > 1
+                            && splitErrorCodes.contains(moodleError.getErrorCode())) {
+                        int mid = (from + to) >>> 1;
+                        return CompletableFuture.allOf(
+                                postSplitting(wsfunction, items, from, mid, writer, responseType, onSuccess, onItemError),
+                                postSplitting(wsfunction, items, mid, to, writer, responseType, onSuccess, onItemError));
+                    }
+                    if (!(cause instanceof MoodleWebServiceException) || to - from > 1) {
+                        log.error("[MoodleService.{}] Erro ao enviar lote de {} itens: {}",
+                                wsfunction, to - from, cause.getMessage(), cause);
+                    }
+                    Exception error = cause instanceof Exception ex ? ex : new RuntimeException(cause);
+                    for (int i = from; i < to; i++) {
+                        onItemError.accept(i, error);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
     }
 
     /**
-     * Helper method to create error response
+     * Run the tasks keeping at most app.moodle.batch.concurrency of them in flight.
+     * A task is only started when a previous one completes, so no thread waits in between.
      */
-    private Map<String, Object> createErrorResponse(String message, int statusCode) {
-        Map<String, Object> error = new HashMap<>();
-        error.put("error", true);
-        error.put("message", message);
-        error.put("statusCode", statusCode);
-        return error;
+    private CompletableFuture<Void> runBounded(List<Supplier<CompletableFuture<Void>>> tasks) {
+        if (tasks.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(tasks.size());
+
+        for (int i = 0; i < Math.min(batchConcurrency, tasks.size()); i++) {
+            startNext(tasks, next, remaining, done);
+        }
+        return done;
+    }
+
+    private void startNext(List<Supplier<CompletableFuture<Void>>> tasks, AtomicInteger next,
+            AtomicInteger remaining, CompletableFuture<Void> done) {
+        int index = next.getAndIncrement();
+        if (index >= tasks.size()) {
+            return;
+        }
+        CompletableFuture<Void> task;
+        try {
+            task = tasks.get(index).get();
+        } catch (RuntimeException e) {
+            // A task that throws instead of returning a failed future still completes the run
+            task = CompletableFuture.failedFuture(e);
+        }
+        task.whenComplete((ignored, error) -> {
+            if (error != null) {
+                done.completeExceptionally(error);
+            } else if (remaining.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+            startNext(tasks, next, remaining, done);
+        });
+    }
+
+    @FunctionalInterface
+    private interface ItemWriter<T> {
+        void write(MoodleFormEncoder form, int index, T item);
+    }
+
+    @FunctionalInterface
+    private interface ChunkHandler<R> {
+        void handle(int from, int to, R body);
     }
 }
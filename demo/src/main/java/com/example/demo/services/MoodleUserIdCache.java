@@ -0,0 +1,103 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.MoodleUserList;
+import com.example.demo.bens.MoodleUserSummary;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Resolves SII users (username or personId) to their real Moodle user id.
+ * Filled from bulk lookups and create responses, bounded by size (LRU) and TTL,
+ * and optionally warmed at startup with every user created by this integration.
+ */
+@Component
+public class MoodleUserIdCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MoodleUserIdCache.class);
+
+    @Value("${app.moodle.cache.users.warm-up:false}")
+    private boolean warmUp;
+
+    private final Cache<String, Integer> byUsername;
+    private final Cache<String, Integer> byPersonId;
+    private final MoodleClient moodleClient;
+
+    public MoodleUserIdCache(MoodleClient moodleClient, MeterRegistry meterRegistry,
+            @Value("${app.moodle.cache.users.max-size:50000}") long maxSize,
+            @Value("${app.moodle.cache.users.ttl-minutes:720}") long ttlMinutes) {
+        this.moodleClient = moodleClient;
+        this.byUsername = newCache(maxSize, ttlMinutes);
+        this.byPersonId = newCache(maxSize, ttlMinutes);
+        CaffeineCacheMetrics.monitor(meterRegistry, byUsername, "moodle.users.byUsername");
+        CaffeineCacheMetrics.monitor(meterRegistry, byPersonId, "moodle.users.byPersonId");
+    }
+
+    private static Cache<String, Integer> newCache(long maxSize, long ttlMinutes) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Find a cached Moodle id, trying the personId first and then the username
+     */
+    public Integer get(String personId, String username) {
+        Integer id = personId != null ? byPersonId.getIfPresent(personId) : null;
+        if (id == null && username != null) {
+            id = byUsername.getIfPresent(username.toLowerCase(Locale.ROOT));
+        }
+        return id;
+    }
+
+    public void put(String personId, String username, Integer moodleId) {
+        if (moodleId == null) {
+            return;
+        }
+        if (personId != null && !personId.isEmpty()) {
+            byPersonId.put(personId, moodleId);
+        }
+        if (username != null) {
+            byUsername.put(username.toLowerCase(Locale.ROOT), moodleId);
+        }
+    }
+
+    /**
+     * Load the users created by this integration (auth=db) when
+     * app.moodle.cache.users.warm-up is enabled
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!warmUp) {
+            return;
+        }
+        log.info("[MoodleUserIdCache] Carregando usuários do Moodle para a cache");
+
+        MoodleFormEncoder.Writer params = form -> form
+                .field("criteria", 0, "key", "auth")
+                .field("criteria", 0, "value", "db");
+
+        moodleClient.call("core_user_get_users", params, MoodleUserList.class).whenComplete((body, error) -> {
+            if (error != null) {
+                log.warn("[MoodleUserIdCache] Falha ao aquecer a cache: {}", MoodleClient.unwrap(error).getMessage());
+                return;
+            }
+            for (MoodleUserSummary user : body.users()) {
+                put(user.idnumber(), user.username(), user.id());
+            }
+            log.info("[MoodleUserIdCache] Cache aquecida com {} usuários", body.users().size());
+        });
+    }
+}
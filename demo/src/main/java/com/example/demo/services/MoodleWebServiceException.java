@@ -0,0 +1,24 @@
+package com.example.demo.services;
+
+/**
+ * Error returned by a Moodle web-service function ({"exception", "errorcode", "message"})
+ */
+public class MoodleWebServiceException extends RuntimeException {
+
+    private final String exception;
+    private final String errorCode;
+
+    public MoodleWebServiceException(String exception, String errorCode, String message) {
+        super(String.format("Moodle Error: %s - %s", exception, message));
+        this.exception = exception;
+        this.errorCode = errorCode;
+    }
+
+    public String getException() {
+        return exception;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
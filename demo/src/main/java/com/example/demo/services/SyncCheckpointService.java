@@ -0,0 +1,123 @@
+package com.example.demo.services;
+
+import com.example.demo.entity.SyncCheckpoint;
+import com.example.demo.repository.SyncCheckpointRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Persisted progress of a course sync (course, users, enrolments, sections), so a
+ * retried or redelivered message resumes after the last completed step. Like the
+ * sync ledger, checkpoints are best effort: database errors are logged and the
+ * sync simply runs from the start (see SyncTables).
+ */
+@Service
+public class SyncCheckpointService {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncCheckpointService.class);
+
+    private static final TypeReference<Map<String, Integer>> USER_IDS = new TypeReference<>() {
+    };
+    private static final TypeReference<Map<String, Object>> RESULT = new TypeReference<>() {
+    };
+
+    private final SyncCheckpointRepository repository;
+    private final ObjectMapper objectMapper;
+    private final SyncTables syncTables;
+
+    @Value("${app.moodle.sync.checkpoint.enabled:true}")
+    private boolean enabled;
+
+    // Checkpoints older than this are ignored and the sync starts over
+    @Value("${app.moodle.sync.checkpoint.max-age-hours:24}")
+    private long maxAgeHours;
+
+    public SyncCheckpointService(SyncCheckpointRepository repository, ObjectMapper objectMapper,
+            SyncTables syncTables) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.syncTables = syncTables;
+    }
+
+    /**
+     * Checkpoint left by an earlier attempt of the same payload, if still fresh
+     */
+    public Optional<SyncCheckpoint> find(String groupId, String contentHash) {
+        if (!enabled || groupId == null || contentHash == null || !syncTables.available()) {
+            return Optional.empty();
+        }
+        try {
+            return repository.findById(groupId)
+                    .filter(checkpoint -> contentHash.equals(checkpoint.getContentHash()))
+                    .filter(checkpoint -> checkpoint.getUpdatedAt() != null && checkpoint.getUpdatedAt()
+                            .isAfter(Instant.now().minus(Duration.ofHours(maxAgeHours))));
+        } catch (Exception e) {
+            log.warn("[SyncCheckpointService] Checkpoint lookup failed for group {}: {}", groupId, e.getMessage());
+            syncTables.unavailable(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Record a completed step with everything later steps need to resume
+     */
+    public void save(String groupId, String contentHash, SyncCheckpoint.Step step, Integer courseId,
+            Map<String, Integer> userIds, Map<String, Object> result) {
+        if (!enabled || groupId == null || contentHash == null || !syncTables.available()) {
+            return;
+        }
+        try {
+            repository.save(new SyncCheckpoint(groupId, contentHash, step, courseId,
+                    userIds != null ? objectMapper.writeValueAsString(userIds) : null,
+                    objectMapper.writeValueAsString(result), Instant.now()));
+            log.debug("[SyncCheckpointService] Group {} reached step {}", groupId, step);
+        } catch (Exception e) {
+            log.warn("[SyncCheckpointService] Unable to save step {} for group {}: {}", step, groupId, e.getMessage());
+            syncTables.unavailable(e);
+        }
+    }
+
+    /**
+     * The sync finished; nothing is left to resume
+     */
+    public void complete(String groupId) {
+        if (!enabled || groupId == null || !syncTables.available()) {
+            return;
+        }
+        try {
+            repository.deleteById(groupId);
+        } catch (Exception e) {
+            log.warn("[SyncCheckpointService] Unable to clear checkpoint for group {}: {}", groupId, e.getMessage());
+            syncTables.unavailable(e);
+        }
+    }
+
+    public Map<String, Integer> userIds(SyncCheckpoint checkpoint) {
+        return read(checkpoint.getUserIds(), USER_IDS);
+    }
+
+    public Map<String, Object> result(SyncCheckpoint checkpoint) {
+        return read(checkpoint.getResult(), RESULT);
+    }
+
+    private <T> Map<String, T> read(String json, TypeReference<Map<String, T>> type) {
+        if (json == null) {
+            return new HashMap<>();
+        }
+        try {
+            return new HashMap<>(objectMapper.readValue(json, type));
+        } catch (Exception e) {
+            throw new IllegalStateException("Corrupted sync checkpoint", e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.CourseSyncRequest;
+import com.example.demo.entity.SyncLedgerEntry;
+import com.example.demo.repository.SyncLedgerRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Sync ledger: remembers, per groupId, the content hash of the last request that
+ * was applied to Moodle without failures, so an identical snapshot is skipped
+ * before any Moodle call. It also keeps when the last applied request was received:
+ * a delayed retry or a replay of an older snapshot is dropped instead of undoing a
+ * newer one. The ledger is best effort; when the database is unavailable (see
+ * SyncTables) every request is simply applied.
+ */
+@Service
+public class SyncLedgerService {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncLedgerService.class);
+
+    private final SyncLedgerRepository repository;
+    private final ObjectMapper objectMapper;
+    private final SyncTables syncTables;
+
+    // Content hash of a partially applied sync; matches no request
+    private static final String PARTIAL_HASH = "";
+
+    @Value("${app.moodle.sync.ledger.enabled:true}")
+    private boolean enabled;
+
+    // A matching entry older than this is applied again (repairs manual changes in Moodle)
+    @Value("${app.moodle.sync.ledger.max-age-hours:168}")
+    private long maxAgeHours;
+
+    public SyncLedgerService(SyncLedgerRepository repository, ObjectMapper objectMapper, SyncTables syncTables) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.syncTables = syncTables;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * SHA-256 of the request in canonical form: object keys sorted and the
+     * students/teachers lists ordered by username, so a resend of the same roster
+     * in another order has the same hash
+     */
+    public String contentHash(CourseSyncRequest request) {
+        JsonNode tree = canonical(objectMapper.valueToTree(request));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(objectMapper.writeValueAsString(tree).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Unable to hash synchronization request", e);
+        }
+    }
+
+    /**
+     * Moodle course id of the last applied sync when it had the same hash and is
+     * still fresh; empty when the request has to be applied
+     */
+    public Optional<Integer> findUnchanged(String groupId, String contentHash) {
+        if (!enabled || groupId == null || !syncTables.available()) {
+            return Optional.empty();
+        }
+        try {
+            return repository.findById(groupId)
+                    .filter(entry -> contentHash.equals(entry.getContentHash()))
+                    .filter(entry -> entry.getAppliedAt() != null && entry.getAppliedAt()
+                            .isAfter(Instant.now().minus(Duration.ofHours(maxAgeHours))))
+                    .map(SyncLedgerEntry::getMoodleCourseId);
+        } catch (Exception e) {
+            log.warn("[SyncLedgerService] Ledger lookup failed for group {}: {}", groupId, e.getMessage());
+            syncTables.unavailable(e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * True when a request sent after this one was already applied to the group
+     *
+     * @param sourceTime publish time of the request (its first receipt when the publisher set none)
+     */
+    public boolean isStale(String groupId, Instant sourceTime) {
+        if (!enabled || groupId == null || sourceTime == null || !syncTables.available()) {
+            return false;
+        }
+        try {
+            return repository.findById(groupId)
+                    .map(SyncLedgerEntry::getReceivedAt)
+                    .filter(applied -> applied.isAfter(sourceTime))
+                    .isPresent();
+        } catch (Exception e) {
+            log.warn("[SyncLedgerService] Ledger lookup failed for group {}: {}", groupId, e.getMessage());
+            syncTables.unavailable(e);
+            return false;
+        }
+    }
+
+    /**
+     * Record a sync that was applied without failures
+     *
+     * @param sourceTime publish time of the request, for isStale
+     */
+    public void record(String groupId, String contentHash, Integer courseId, Instant sourceTime) {
+        save(groupId, contentHash, courseId, sourceTime);
+    }
+
+    /**
+     * Record a sync that changed Moodle but did not finish: the next request for the group
+     * is applied whatever its content, but older ones are still stale
+     */
+    public void recordPartial(String groupId, Integer courseId, Instant sourceTime) {
+        save(groupId, PARTIAL_HASH, courseId, sourceTime);
+    }
+
+    private void save(String groupId, String contentHash, Integer courseId, Instant sourceTime) {
+        if (!enabled || groupId == null || !syncTables.available()) {
+            return;
+        }
+        try {
+            Optional<SyncLedgerEntry> previous = repository.findById(groupId);
+            Instant applied = previous.map(SyncLedgerEntry::getReceivedAt).orElse(null);
+            if (applied != null && sourceTime != null && applied.isAfter(sourceTime)) {
+                // A newer request finished first (concurrent consumers); it stays the reference
+                log.debug("[SyncLedgerService] Group {} already has a newer sync, not recorded", groupId);
+                return;
+            }
+            repository.save(new SyncLedgerEntry(groupId, contentHash, courseId, Instant.now(),
+                    sourceTime != null ? sourceTime : applied));
+            log.debug("[SyncLedgerService] Recorded group {} -> course {}", groupId, courseId);
+        } catch (Exception e) {
+            log.warn("[SyncLedgerService] Unable to record group {}: {}", groupId, e.getMessage());
+            syncTables.unavailable(e);
+        }
+    }
+
+    private static JsonNode canonical(JsonNode node) {
+        if (node.isObject()) {
+            TreeMap<String, JsonNode> fields = new TreeMap<>();
+            node.properties().forEach(f -> fields.put(f.getKey(), canonical(f.getValue())));
+            ObjectNode sorted = JsonNodeFactory.instance.objectNode();
+            fields.forEach(sorted::set);
+            if (fields.containsKey("students")) {
+                sorted.set("students", sortedByUsername(fields.get("students")));
+            }
+            if (fields.containsKey("teachers")) {
+                sorted.set("teachers", sortedByUsername(fields.get("teachers")));
+            }
+            return sorted;
+        }
+        if (node.isArray()) {
+            ArrayNode array = JsonNodeFactory.instance.arrayNode();
+            node.forEach(item -> array.add(canonical(item)));
+            return array;
+        }
+        return node;
+    }
+
+    private static JsonNode sortedByUsername(JsonNode roster) {
+        if (!roster.isArray()) {
+            return roster;
+        }
+        List<JsonNode> members = new ArrayList<>();
+        roster.forEach(members::add);
+        members.sort(Comparator.comparing(m -> m.path("username").asText("").toLowerCase(Locale.ROOT)));
+        ArrayNode sorted = JsonNodeFactory.instance.arrayNode();
+        members.forEach(sorted::add);
+        return sorted;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.demo.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Database access of the sync ledger and checkpoints, which are optional. Their tables
+ * are created on first use rather than at boot, so the application starts without the
+ * database; after a failure the database is left alone for retry-interval-seconds and
+ * every sync is simply applied in full.
+ */
+@Component
+public class SyncTables {
+
+    private static final Logger log = LoggerFactory.getLogger(SyncTables.class);
+
+    // Same columns as the SyncLedgerEntry and SyncCheckpoint entities
+    private static final String LEDGER_DDL = """
+            CREATE TABLE IF NOT EXISTS moodle_sync_ledger (
+                group_id VARCHAR(100) PRIMARY KEY,
+                content_hash VARCHAR(64) NOT NULL,
+                moodle_course_id INTEGER,
+                applied_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+                received_at TIMESTAMP(6) WITH TIME ZONE
+            )""";
+    // Tables created before the ordering stamp existed
+    private static final String LEDGER_RECEIVED_AT_DDL =
+            "ALTER TABLE moodle_sync_ledger ADD COLUMN IF NOT EXISTS received_at TIMESTAMP(6) WITH TIME ZONE";
+    private static final String CHECKPOINT_DDL = """
+            CREATE TABLE IF NOT EXISTS moodle_sync_checkpoint (
+                group_id VARCHAR(100) PRIMARY KEY,
+                content_hash VARCHAR(64) NOT NULL,
+                step VARCHAR(20) NOT NULL,
+                moodle_course_id INTEGER,
+                user_ids TEXT,
+                result TEXT,
+                updated_at TIMESTAMP(6) WITH TIME ZONE NOT NULL
+            )""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile boolean created;
+    private volatile Instant retryAt = Instant.MIN;
+
+    @Value("${app.moodle.sync.store.retry-interval-seconds:60}")
+    private long retryIntervalSeconds;
+
+    public SyncTables(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * True when the tables exist and the database did not fail recently
+     */
+    public boolean available() {
+        if (Instant.now().isBefore(retryAt)) {
+            return false;
+        }
+        if (!created) {
+            synchronized (this) {
+                if (!created) {
+                    try {
+                        jdbcTemplate.execute(LEDGER_DDL);
+                        jdbcTemplate.execute(LEDGER_RECEIVED_AT_DDL);
+                        jdbcTemplate.execute(CHECKPOINT_DDL);
+                        created = true;
+                        log.info("[SyncTables] Sync ledger and checkpoint tables ready");
+                    } catch (Exception e) {
+                        unavailable(e);
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A ledger or checkpoint call failed; database errors suspend the tables for a while
+     */
+    public void unavailable(Exception e) {
+        if (e instanceof DataAccessException || e instanceof TransactionException) {
+            retryAt = Instant.now().plus(Duration.ofSeconds(retryIntervalSeconds));
+            log.warn("[SyncTables] Database unavailable, syncs run without ledger and checkpoints for {} s: {}",
+                    retryIntervalSeconds, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.MoodleUserRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Users provisioned during one run (a bulk job), keyed by personId. The first group
+ * sync that needs a person provisions it; every other group of the run, running at
+ * the same time or later, reuses that Moodle id instead of provisioning it again.
+ */
+public class UserProvisioningRegistry {
+
+    /**
+     * Header that carries the run's registry into direct:syncCourseRequest
+     */
+    public static final String HEADER = "MoodleUserRegistry";
+
+    private final Map<String, CompletableFuture<Integer>> users = new ConcurrentHashMap<>();
+    private final AtomicLong provisioned = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * Resolve the Moodle ids of the users, provisioning with the given function only
+     * the people no other sync of the run has claimed
+     *
+     * @return username (as given) to Moodle user id; users that could not be provisioned are absent
+     */
+    public Map<String, Integer> provision(List<MoodleUserRequest> requested,
+            Function<List<MoodleUserRequest>, Map<String, Integer>> provisioner) {
+        Map<MoodleUserRequest, CompletableFuture<Integer>> owned = new LinkedHashMap<>();
+        Map<MoodleUserRequest, CompletableFuture<Integer>> claimed = new LinkedHashMap<>();
+        for (MoodleUserRequest user : requested) {
+            CompletableFuture<Integer> mine = new CompletableFuture<>();
+            CompletableFuture<Integer> existing = users.putIfAbsent(key(user), mine);
+            if (existing == null) {
+                owned.put(user, mine);
+            } else {
+                claimed.put(user, existing);
+            }
+        }
+
+        Map<String, Integer> userIds = new HashMap<>();
+        if (!owned.isEmpty()) {
+            // Owned users are always settled before waiting on the others, so two syncs never wait on each other
+            Map<String, Integer> created = Map.of();
+            try {
+                created = provisioner.apply(new ArrayList<>(owned.keySet()));
+            } finally {
+                for (Map.Entry<MoodleUserRequest, CompletableFuture<Integer>> entry : owned.entrySet()) {
+                    Integer id = created.get(entry.getKey().getUsername());
+                    if (id == null) {
+                        // Not provisioned: a later group of the run may try again
+                        users.remove(key(entry.getKey()), entry.getValue());
+                    } else {
+                        userIds.put(entry.getKey().getUsername(), id);
+                    }
+                    entry.getValue().complete(id);
+                }
+            }
+            provisioned.addAndGet(userIds.size());
+        }
+
+        for (Map.Entry<MoodleUserRequest, CompletableFuture<Integer>> entry : claimed.entrySet()) {
+            Integer id = entry.getValue().join();
+            if (id != null) {
+                userIds.put(entry.getKey().getUsername(), id);
+                reused.incrementAndGet();
+            }
+        }
+        return userIds;
+    }
+
+    public long getProvisioned() {
+        return provisioned.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    private static String key(MoodleUserRequest user) {
+        if (user.getPersonId() != null && !user.getPersonId().isEmpty()) {
+            return user.getPersonId();
+        }
+        return "username:" + (user.getUsername() != null ? user.getUsername().toLowerCase(Locale.ROOT) : "");
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.demo.consumer;
+
+import com.example.demo.producer.MoodleDeadLetterProducer;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RabbitMqConsumerTest {
+
+    private static final long PUBLISHED = 1_700_000_000_000L;
+
+    @Test
+    void publisherTimestampOrdersTheMessage() {
+        Message delivered = MessageBuilder.withBody("{}".getBytes()).setTimestamp(new Date(PUBLISHED)).build();
+
+        Message stamped = RabbitMqConsumer.stamped(delivered);
+
+        assertEquals(PUBLISHED, RabbitMqConsumer.sourceTime(stamped));
+        assertNull(delivered.getMessageProperties().getHeader(MoodleDeadLetterProducer.SOURCE_TIME_HEADER));
+    }
+
+    @Test
+    void firstReceiptOrdersAMessageWithoutTimestamp() {
+        long before = System.currentTimeMillis();
+
+        long sourceTime = RabbitMqConsumer.sourceTime(RabbitMqConsumer.stamped(
+                MessageBuilder.withBody("{}".getBytes()).build()));
+
+        assertTrue(sourceTime >= before && sourceTime <= System.currentTimeMillis());
+    }
+
+    @Test
+    void retriedMessageKeepsItsSourceTime() {
+        Message retried = MessageBuilder.withBody("{}".getBytes())
+                .setTimestamp(new Date(PUBLISHED + 60_000))
+                .setHeader(MoodleDeadLetterProducer.SOURCE_TIME_HEADER, PUBLISHED)
+                .build();
+
+        assertSame(retried, RabbitMqConsumer.stamped(retried));
+        assertEquals(PUBLISHED, RabbitMqConsumer.sourceTime(retried));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.demo.producer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class MoodleSyncPartitionRouterTest {
+
+    private static final String BOTH = "{\"groupId\":\"G1\",\"courseData\":{\"shortname\":\"MEI-IDS\"}}";
+    private static final String GROUP_ONLY = "{\"groupId\":\"G1\"}";
+    private static final String SHORTNAME_ONLY = "{\"courseData\":{\"shortname\":\"MEI-IDS\"}}";
+
+    private MoodleSyncPartitionRouter router;
+
+    @BeforeEach
+    void setUp() {
+        // invoke() is not stubbed: publish only computes and returns the key
+        router = new MoodleSyncPartitionRouter(mock(RabbitTemplate.class), new ObjectMapper());
+        ReflectionTestUtils.setField(router, "exchange", "moodle.sync.partitions");
+        ReflectionTestUtils.setField(router, "hashKey", "groupId");
+    }
+
+    @Test
+    void groupIdIsTheKeyWithShortnameAsFallback() {
+        assertEquals("G1", router.publish(BOTH, 0));
+        assertEquals("G1", router.publish(GROUP_ONLY, 0));
+        assertEquals("MEI-IDS", router.publish(SHORTNAME_ONLY, 0));
+    }
+
+    @Test
+    void shortnameIsTheKeyWhenConfigured() {
+        ReflectionTestUtils.setField(router, "hashKey", "shortname");
+
+        assertEquals("MEI-IDS", router.publish(BOTH, 0));
+        assertEquals("G1", router.publish(GROUP_ONLY, 0));
+        assertEquals("MEI-IDS", router.publish(SHORTNAME_ONLY, 0));
+    }
+
+    @Test
+    void messagesWithoutKeyShareOnePartition() {
+        assertEquals("unkeyed", router.publish("{\"students\":[]}", 0));
+        assertEquals("unkeyed", router.publish("not json", 0));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.demo.routes;
+
+import com.example.demo.bens.CourseSyncRequest;
+import com.example.demo.bens.MoodleEnrolledUser;
+import com.example.demo.bens.MoodleEnrolment;
+import com.example.demo.services.MoodleService;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MoodleCourseRouteTest {
+
+    private static final int STUDENT = 5;
+    private static final int TEACHER = 3;
+    private static final int MANAGER = 1;
+
+    private DefaultCamelContext camelContext;
+    private MoodleService moodleService;
+    private MoodleCourseRoute route;
+
+    @BeforeEach
+    void setUp() {
+        camelContext = new DefaultCamelContext();
+        moodleService = mock(MoodleService.class);
+        route = new MoodleCourseRoute();
+        ReflectionTestUtils.setField(route, "moodleService", moodleService);
+    }
+
+    @Test
+    void chunkResultsFollowSplitOrderWhateverOrderTheyFinishIn() {
+        MoodleCourseRoute.ChunkResultAggregation aggregation = new MoodleCourseRoute.ChunkResultAggregation();
+        Exchange merged = aggregation.aggregate(null, chunk(2, "c"));
+        merged = aggregation.aggregate(merged, chunk(0, "a"));
+        merged = aggregation.aggregate(merged, chunk(1, "b"));
+
+        assertEquals(List.of("a", "b", "c"), List.copyOf(merged.getMessage().getBody(Map.class).values()));
+    }
+
+    @Test
+    void failedChunkFailsTheMergedResult() {
+        MoodleCourseRoute.ChunkResultAggregation aggregation = new MoodleCourseRoute.ChunkResultAggregation();
+        Exchange failed = chunk(1, null);
+        IllegalStateException error = new IllegalStateException("chunk failed");
+        failed.setException(error);
+
+        Exchange merged = aggregation.aggregate(aggregation.aggregate(null, chunk(0, "a")), failed);
+        merged = aggregation.aggregate(merged, chunk(2, "c"));
+
+        assertSame(error, merged.getException());
+        assertEquals(3, merged.getMessage().getBody(Map.class).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void rosterKeepsOnlyTheRolesMissingInTheCourse() {
+        Exchange exchange = syncExchange(request(List.of("ana", "Bruno", "carla"), List.of("bruno", "dora")));
+        exchange.setProperty(property("CURRENT_ENROLMENTS"), Map.of(
+                "ana", enrolled(10, "ana", STUDENT),
+                "bruno", enrolled(11, "bruno", STUDENT)));
+
+        ReflectionTestUtils.invokeMethod(route, "planRoster", exchange);
+
+        List<MoodleCourseRoute.RosterMember> pending = exchange.getProperty(property("PENDING_MEMBERS"), List.class);
+        assertEquals(List.of("Bruno", "carla", "dora"), pending.stream().map(m -> m.user().getUsername()).toList());
+        assertEquals(List.of(Map.entry("teacher", TEACHER)), pending.get(0).roles(),
+                "bruno already has the student role");
+        assertEquals(Set.of("ana", "bruno", "carla", "dora"), exchange.getProperty(property("ROSTER_USERNAMES"), Set.class));
+        assertEquals(2, exchange.getProperty(property("SYNC_RESULT"), Map.class).get("enrollmentUnchanged"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void usersWhoLeftTheRosterAreUnenrolledUnlessTheyHoldOtherRoles() {
+        when(moodleService.unenrollUsers(any())).thenReturn(List.of(Map.of("username", "old", "success", true)));
+        Map<String, MoodleEnrolledUser> current = Map.of(
+                "ana", enrolled(10, "ana", STUDENT),
+                "old", enrolled(11, "old", STUDENT),
+                "boss", enrolled(12, "boss", TEACHER, MANAGER));
+        Map<String, Object> syncResult = new HashMap<>();
+
+        ReflectionTestUtils.invokeMethod(route, "unenrolRemoved", current, Set.of("ana"), 7, syncResult);
+
+        ArgumentCaptor<List<MoodleEnrolment>> removed = ArgumentCaptor.forClass(List.class);
+        verify(moodleService).unenrollUsers(removed.capture());
+        assertEquals(List.of("old"), removed.getValue().stream().map(MoodleEnrolment::getUsername).toList());
+        assertEquals(1L, syncResult.get("unenrollmentSuccess"));
+    }
+
+    @Test
+    void emptyRosterNeverEmptiesTheCourse() {
+        Map<String, Object> syncResult = new HashMap<>();
+
+        ReflectionTestUtils.invokeMethod(route, "unenrolRemoved",
+                Map.of("ana", enrolled(10, "ana", STUDENT)), Set.of(), 7, syncResult);
+
+        verify(moodleService, never()).unenrollUsers(any());
+        assertFalse(syncResult.containsKey("unenrollments"));
+    }
+
+    private Exchange chunk(int index, Object result) {
+        Exchange exchange = new DefaultExchange(camelContext);
+        exchange.setProperty(Exchange.SPLIT_INDEX, index);
+        exchange.getMessage().setBody(result);
+        return exchange;
+    }
+
+    private Exchange syncExchange(CourseSyncRequest request) {
+        Exchange exchange = new DefaultExchange(camelContext);
+        exchange.setProperty(property("SYNC_REQUEST"), request);
+        exchange.setProperty(property("SYNC_RESULT"), new HashMap<String, Object>());
+        return exchange;
+    }
+
+    private static String property(String constant) {
+        return (String) ReflectionTestUtils.getField(MoodleCourseRoute.class, constant);
+    }
+
+    private static CourseSyncRequest request(List<String> students, List<String> teachers) {
+        CourseSyncRequest request = new CourseSyncRequest();
+        request.setGroupId("G1");
+        request.setStudents(students.stream().map(username -> {
+            CourseSyncRequest.StudentData student = new CourseSyncRequest.StudentData();
+            student.setUsername(username);
+            return student;
+        }).toList());
+        request.setTeachers(teachers.stream().map(username -> {
+            CourseSyncRequest.TeacherData teacher = new CourseSyncRequest.TeacherData();
+            teacher.setUsername(username);
+            return teacher;
+        }).toList());
+        return request;
+    }
+
+    private static MoodleEnrolledUser enrolled(int id, String username, int... roleIds) {
+        return new MoodleEnrolledUser(id, username, null, Arrays.stream(roleIds)
+                .mapToObj(roleId -> new MoodleEnrolledUser.Role(roleId, null))
+                .toList());
+    }
+}
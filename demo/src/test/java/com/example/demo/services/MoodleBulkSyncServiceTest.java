@@ -0,0 +1,84 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.CourseSyncRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.camel.ProducerTemplate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MoodleBulkSyncServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private ProducerTemplate producerTemplate;
+    private MoodleBulkSyncService service;
+
+    @BeforeEach
+    void setUp() {
+        producerTemplate = mock(ProducerTemplate.class);
+        when(producerTemplate.asyncRequestBodyAndHeader(anyString(), any(), anyString(), any(), eq(Map.class)))
+                .thenReturn(CompletableFuture.completedFuture(Map.of("success", true)));
+        service = new MoodleBulkSyncService(producerTemplate, new ObjectMapper(), new SimpleMeterRegistry(), 1);
+        ReflectionTestUtils.setField(service, "maxInFlight", 2);
+        ReflectionTestUtils.setField(service, "retainedJobs", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void malformedLinesAreSkippedAndTheRestIsRead() throws Exception {
+        Path file = Files.writeString(dir.resolve("term.ndjson"), String.join("\n",
+                "{\"groupId\":\"G1\"}",
+                "{\"groupId\": \"G2\", broken",
+                "not json at all",
+                "",
+                "{\"groupId\":\"G3\",\"students\":{\"not\":\"a list\"}}",
+                "{\"groupId\":\"G4\"}"));
+
+        Map<String, Object> progress = awaitFinished(service.submit(file, false));
+
+        assertEquals("COMPLETED", progress.get("status"));
+        assertEquals(2L, progress.get("read"));
+        assertEquals(3L, progress.get("malformed"));
+        assertEquals(2L, progress.get("succeeded"));
+        ArgumentCaptor<CourseSyncRequest> records = ArgumentCaptor.forClass(CourseSyncRequest.class);
+        verify(producerTemplate, times(2)).asyncRequestBodyAndHeader(eq("direct:syncCourseRequest"),
+                records.capture(), eq(UserProvisioningRegistry.HEADER), any(), eq(Map.class));
+        assertEquals(List.of("G1", "G4"), records.getAllValues().stream().map(CourseSyncRequest::getGroupId).toList());
+    }
+
+    private static Map<String, Object> awaitFinished(MoodleBulkSyncService.Job job) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> progress = job.toMap();
+            if (!"RUNNING".equals(progress.get("status"))) {
+                return progress;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Job did not finish: " + job.toMap());
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.demo.services;
+
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoodleConcurrencyLimiterTest {
+
+    private static final String CREATE_USERS = "core_user_create_users";
+    private static final String GET_USERS = "core_user_get_users_by_field";
+    private static final long ONE_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private SimpleMeterRegistry meterRegistry;
+    private MoodleConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        BulkheadRegistry bulkheads = BulkheadRegistry.ofDefaults();
+        bulkheads.bulkhead("moodle-users", BulkheadConfig.custom().maxConcurrentCalls(6).build());
+        limiter = new MoodleConcurrencyLimiter(meterRegistry, bulkheads);
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        ReflectionTestUtils.setField(limiter, "initialLimit", 4);
+        ReflectionTestUtils.setField(limiter, "minLimit", 1);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 20);
+        ReflectionTestUtils.setField(limiter, "budgets", Map.of(CREATE_USERS, 5));
+        ReflectionTestUtils.setField(limiter, "backoffRatio", 0.5);
+        ReflectionTestUtils.setField(limiter, "latencyThresholdMs", 3000L);
+        ReflectionTestUtils.setField(limiter, "maxQueue", 10);
+        ReflectionTestUtils.setField(limiter, "queueTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(limiter, "interactiveReservedSlots", 0);
+        ReflectionTestUtils.setField(limiter, "bulkMinShare", 0.0);
+    }
+
+    @Test
+    void fastCallsRaiseLimitUpToBudget() {
+        assertEquals(4, started(acquire(CREATE_USERS, 4)));
+        for (int i = 0; i < 20; i++) {
+            limiter.release(CREATE_USERS, false, ONE_MS, false);
+            acquire(CREATE_USERS, 1);
+        }
+        assertEquals(5.0, limit(CREATE_USERS));
+    }
+
+    @Test
+    void slowCallDecreasesLimit() throws Exception {
+        ReflectionTestUtils.setField(limiter, "latencyThresholdMs", 2L);
+        acquire(GET_USERS, 1);
+        Thread.sleep(5);
+        limiter.release(GET_USERS, false, TimeUnit.MILLISECONDS.toNanos(4), false);
+        assertEquals(2.0, limit(GET_USERS));
+    }
+
+    @Test
+    void burstOfFailuresDecreasesOncePerRound() throws Exception {
+        acquire(GET_USERS, 4);
+        Thread.sleep(5);
+        for (int i = 0; i < 4; i++) {
+            limiter.release(GET_USERS, false, ONE_MS, true);
+        }
+        assertEquals(2.0, limit(GET_USERS));
+
+        // A call started after the decrease may decrease again
+        acquire(GET_USERS, 1);
+        Thread.sleep(5);
+        limiter.release(GET_USERS, false, ONE_MS, true);
+        assertEquals(1.0, limit(GET_USERS));
+    }
+
+    @Test
+    void functionsOfOneTypeShareItsBulkheadSlots() {
+        List<CompletableFuture<Void>> creates = acquire(CREATE_USERS, 4);
+        List<CompletableFuture<Void>> lookups = acquire(GET_USERS, 4);
+        assertEquals(4, started(creates));
+        assertEquals(2, started(lookups), "moodle-users has 6 slots");
+
+        limiter.release(CREATE_USERS, false, ONE_MS, false);
+        assertEquals(3, started(lookups), "a freed slot goes to the queued caller of the other function");
+    }
+
+    @Test
+    void fullQueueIsRejected() {
+        List<CompletableFuture<Void>> calls = acquire(CREATE_USERS, 15);
+        assertEquals(4, started(calls));
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> calls.get(14).join());
+        assertTrue(error.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    void interactiveCallsUseReservedSlotsAndGoFirst() {
+        ReflectionTestUtils.setField(limiter, "interactiveReservedSlots", 1);
+        List<CompletableFuture<Void>> creates = acquire(CREATE_USERS, 4);
+        List<CompletableFuture<Void>> lookups = acquire(GET_USERS, 3);
+        assertEquals(1, started(lookups), "bulk calls leave the reserved slot free");
+
+        List<CompletableFuture<Void>> interactive = acquire(GET_USERS, true, 2);
+        assertEquals(1, started(interactive), "the reserved slot");
+
+        limiter.release(CREATE_USERS, false, ONE_MS, false);
+        assertEquals(2, started(interactive), "granted before the bulk calls queued earlier");
+        assertEquals(1, started(lookups));
+        assertEquals(4, started(creates));
+    }
+
+    @Test
+    void bulkCallsKeepTheirShareWhileInteractiveCallsWait() {
+        ReflectionTestUtils.setField(limiter, "bulkMinShare", 0.5);
+        List<CompletableFuture<Void>> interactive = acquire(GET_USERS, true, 4);
+        acquire(CREATE_USERS, true, 2);
+        List<CompletableFuture<Void>> queuedInteractive = acquire(GET_USERS, true, 2);
+        List<CompletableFuture<Void>> bulk = acquire(CREATE_USERS, false, 4);
+        assertEquals(4, started(interactive));
+        assertEquals(0, started(bulk));
+
+        limiter.release(GET_USERS, true, ONE_MS, false);
+        assertEquals(1, started(bulk), "bulk holds less than half of the 6 slots");
+        assertEquals(0, started(queuedInteractive));
+    }
+
+    @Test
+    void localRejectionsAreNotOverload() {
+        assertFalse(MoodleClient.isOverload(null));
+        assertFalse(MoodleClient.isOverload(BulkheadFullException.createBulkheadFullException(
+                BulkheadRegistry.ofDefaults().bulkhead("moodle-other"))));
+        assertFalse(MoodleClient.isOverload(new CompletionException(new RejectedExecutionException("full"))));
+        assertFalse(MoodleClient.isOverload(new MoodleWebServiceException("e", "invalidparameter", "m")));
+        assertTrue(MoodleClient.isOverload(new CompletionException(new IOException("reset"))));
+    }
+
+    private List<CompletableFuture<Void>> acquire(String wsfunction, int calls) {
+        return acquire(wsfunction, false, calls);
+    }
+
+    private List<CompletableFuture<Void>> acquire(String wsfunction, boolean interactive, int calls) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            futures.add(limiter.acquire(wsfunction, interactive));
+        }
+        return futures;
+    }
+
+    private static long started(List<CompletableFuture<Void>> futures) {
+        return futures.stream().filter(f -> f.isDone() && !f.isCompletedExceptionally()).count();
+    }
+
+    private double limit(String wsfunction) {
+        return meterRegistry.get("moodle.limiter.limit").tag("wsfunction", wsfunction).gauge().value();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.MoodleCourse;
+import com.example.demo.bens.MoodleCourseFormatOption;
+import com.example.demo.bens.MoodleCustomField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.FormHttpMessageWriter;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares MoodleFormEncoder with the previous form path (LinkedMultiValueMap of
+ * courses[i][field] keys written by Spring's FormHttpMessageWriter) for a
+ * core_course_create_courses body.
+ *
+ * Not a JUnit test; run it from the IDE (main) or with:
+ * mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.openjdk.jmh.Main MoodleFormEncoderBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoodleFormEncoderBenchmark {
+
+    private static final ResolvableType FORM_TYPE =
+            ResolvableType.forClassWithGenerics(MultiValueMap.class, String.class, String.class);
+
+    @Param({"1", "50", "1000"})
+    private int courses;
+
+    private List<MoodleCourse> batch;
+    private FormHttpMessageWriter formWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        batch = new ArrayList<>();
+        for (int i = 0; i < courses; i++) {
+            batch.add(course(i));
+        }
+        formWriter = new FormHttpMessageWriter();
+
+        // Both paths must produce the same bytes for the comparison to mean anything
+        if (!Arrays.equals(multiValueMap(), encoder())) {
+            throw new IllegalStateException("MoodleFormEncoder output differs from FormHttpMessageWriter");
+        }
+    }
+
+    @Benchmark
+    public byte[] multiValueMap() {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            legacyCourse(form, i, batch.get(i));
+        }
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.POST, "/");
+        formWriter.write(Mono.just(form), FORM_TYPE, MediaType.APPLICATION_FORM_URLENCODED, request, Map.of()).block();
+        DataBuffer body = DataBufferUtils.join(request.getBody()).block();
+        byte[] bytes = new byte[body.readableByteCount()];
+        body.read(bytes);
+        DataBufferUtils.release(body);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] encoder() {
+        return MoodleFormEncoder.encode(form -> {
+            for (int i = 0; i < batch.size(); i++) {
+                form.course(i, batch.get(i));
+            }
+        });
+    }
+
+    /**
+     * The map-based encoding MoodleService used before MoodleFormEncoder
+     */
+    private static void legacyCourse(MultiValueMap<String, String> form, int index, MoodleCourse course) {
+        String prefix = "courses[" + index + "]";
+        add(form, prefix + "[fullname]", course.getFullname());
+        add(form, prefix + "[shortname]", course.getShortname());
+        add(form, prefix + "[categoryid]", course.getCategoryid());
+        add(form, prefix + "[idnumber]", course.getIdnumber());
+        add(form, prefix + "[summary]", course.getSummary());
+        add(form, prefix + "[summaryformat]", course.getSummaryformat());
+        add(form, prefix + "[format]", course.getFormat());
+        add(form, prefix + "[startdate]", course.getStartdate());
+        add(form, prefix + "[enddate]", course.getEnddate());
+        add(form, prefix + "[visible]", course.getVisible());
+        add(form, prefix + "[lang]", course.getLang());
+        for (int j = 0; j < course.getCourseformatoptions().size(); j++) {
+            MoodleCourseFormatOption option = course.getCourseformatoptions().get(j);
+            add(form, prefix + "[courseformatoptions][" + j + "][name]", option.getName());
+            add(form, prefix + "[courseformatoptions][" + j + "][value]", option.getValue());
+        }
+        for (int j = 0; j < course.getCustomfields().size(); j++) {
+            MoodleCustomField field = course.getCustomfields().get(j);
+            add(form, prefix + "[customfields][" + j + "][shortname]", field.getShortname());
+            add(form, prefix + "[customfields][" + j + "][value]", field.getValue());
+        }
+    }
+
+    private static void add(MultiValueMap<String, String> form, String key, Object value) {
+        if (value != null) {
+            form.add(key, value.toString());
+        }
+    }
+
+    private static MoodleCourse course(int i) {
+        MoodleCourse course = new MoodleCourse();
+        course.setFullname("Programação Orientada a Objetos - Turma " + i);
+        course.setShortname("POO-2025-T" + i);
+        course.setCategoryid(12);
+        course.setIdnumber("SII-" + (100000 + i));
+        course.setSummary("<p>Unidade curricular do 2º semestre & laboratório</p>");
+        course.setSummaryformat(1);
+        course.setFormat("topics");
+        course.setStartdate(1735689600);
+        course.setEnddate(1751328000);
+        course.setVisible(1);
+        course.setLang("pt");
+
+        List<MoodleCourseFormatOption> options = new ArrayList<>();
+        options.add(option("numsections", "12"));
+        options.add(option("hiddensections", "0"));
+        course.setCourseformatoptions(options);
+
+        List<MoodleCustomField> customfields = new ArrayList<>();
+        customfields.add(customField("ano_letivo", "2025/2026"));
+        customfields.add(customField("curso", "Engenharia Informática"));
+        course.setCustomfields(customfields);
+        return course;
+    }
+
+    private static MoodleCourseFormatOption option(String name, String value) {
+        MoodleCourseFormatOption option = new MoodleCourseFormatOption();
+        option.setName(name);
+        option.setValue(value);
+        return option;
+    }
+
+    private static MoodleCustomField customField(String shortname, String value) {
+        MoodleCustomField field = new MoodleCustomField();
+        field.setShortname(shortname);
+        field.setValue(value);
+        return field;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MoodleFormEncoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
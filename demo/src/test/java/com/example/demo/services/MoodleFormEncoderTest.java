@@ -0,0 +1,99 @@
+package com.example.demo.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * MoodleFormEncoder must write the same bytes as URLEncoder, including when a field
+ * crosses the end of the 8 KiB scratch buffer. Each body is encoded on a new thread,
+ * so it starts from a fresh buffer.
+ */
+class MoodleFormEncoderTest {
+
+    private static final String TEXT = "Ação & Programação: a+b=c/d? ☃ 😀 100%";
+
+    @Test
+    void closingBracketAtBufferEnd() throws Exception {
+        String padding = "y".repeat(8160);
+        String body = encodeOnFreshThread(form -> {
+            form.field("x", padding);
+            form.field("courses", 0, "categoryid", 1);
+        });
+        assertEquals(expected("x", padding) + "&" + expected("courses[0][categoryid]", "1"), body);
+    }
+
+    @Test
+    void everyFieldShapeAcrossBufferBoundary() throws Exception {
+        // Moves each part of the following fields over the 8192nd byte in turn
+        for (int pad = 8120; pad <= 8200; pad++) {
+            String padding = "p".repeat(pad);
+            String body = encodeOnFreshThread(form -> {
+                form.field("x", padding);
+                form.field("courses", 12, TEXT);
+                form.field("courses", 345, "summary", TEXT);
+                form.field("courses", 6789, "courseformatoptions", 10, "value", TEXT);
+                form.field("courses", -1, "categoryid", Long.MIN_VALUE);
+            });
+            assertEquals(expected("x", padding)
+                    + "&" + expected("courses[12]", TEXT)
+                    + "&" + expected("courses[345][summary]", TEXT)
+                    + "&" + expected("courses[6789][courseformatoptions][10][value]", TEXT)
+                    + "&" + expected("courses[-1][categoryid]", String.valueOf(Long.MIN_VALUE)),
+                    body, "padding " + pad);
+        }
+    }
+
+    @Test
+    void multiByteCharactersAcrossBufferBoundary() throws Exception {
+        for (int pad = 8180; pad <= 8192; pad++) {
+            String padding = "p".repeat(pad);
+            String body = encodeOnFreshThread(form -> form.field("x", padding + "😀ç☃\uD800"));
+            assertEquals(expected("x", padding + "😀ç☃\uD800"), body, "padding " + pad);
+        }
+    }
+
+    @Test
+    void encodedFieldsAreAppendedAsTheyAre() throws Exception {
+        byte[] params = MoodleFormEncoder.encode(form -> form.field("courses", 3, "summary", TEXT));
+        String padding = "p".repeat(8180);
+        String body = encodeOnFreshThread(form -> form.field("x", padding).encoded(params).encoded(new byte[0]));
+        assertEquals(expected("x", padding) + "&" + expected("courses[3][summary]", TEXT), body);
+        assertEquals(expected("courses[3][summary]", TEXT), encodeOnFreshThread(form -> form.encoded(params)));
+    }
+
+    @Test
+    void nullValuesAreLeftOut() throws Exception {
+        String body = encodeOnFreshThread(form -> {
+            form.field("a", null);
+            form.field("courses", 0, "idnumber", null);
+            form.field("b", 2);
+        });
+        assertEquals("b=2", body);
+    }
+
+    private static String expected(String name, String value) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8) + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String encodeOnFreshThread(MoodleFormEncoder.Writer writer) throws Exception {
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.set(new String(MoodleFormEncoder.encode(writer), StandardCharsets.UTF_8));
+            } catch (Throwable e) {
+                result.set(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        if (result.get() instanceof Throwable error) {
+            throw new AssertionError("Encoding failed", error);
+        }
+        return (String) result.get();
+    }
+}
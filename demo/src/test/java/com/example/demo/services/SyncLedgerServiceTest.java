@@ -0,0 +1,129 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.CourseSyncRequest;
+import com.example.demo.entity.SyncLedgerEntry;
+import com.example.demo.repository.SyncLedgerRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SyncLedgerServiceTest {
+
+    private static final Instant OLDER = Instant.parse("2026-01-10T10:00:00Z");
+    private static final Instant NEWER = Instant.parse("2026-01-10T10:05:00Z");
+
+    private SyncLedgerRepository repository;
+    private SyncLedgerService ledger;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(SyncLedgerRepository.class);
+        SyncTables syncTables = mock(SyncTables.class);
+        when(syncTables.available()).thenReturn(true);
+        ledger = new SyncLedgerService(repository, new ObjectMapper(), syncTables);
+        ReflectionTestUtils.setField(ledger, "enabled", true);
+        ReflectionTestUtils.setField(ledger, "maxAgeHours", 168L);
+    }
+
+    @Test
+    void olderPayloadIsStaleOnceNewerWasApplied() {
+        when(repository.findById("G1")).thenReturn(Optional.of(entry("h", NEWER)));
+
+        assertTrue(ledger.isStale("G1", OLDER));
+        assertFalse(ledger.isStale("G1", NEWER));
+        assertFalse(ledger.isStale("G1", NEWER.plusSeconds(1)));
+    }
+
+    @Test
+    void nothingIsStaleWithoutOrderingStamp() {
+        when(repository.findById("G1")).thenReturn(Optional.of(entry("h", null)));
+
+        assertFalse(ledger.isStale("G1", OLDER));
+        assertFalse(ledger.isStale("G1", null));
+        assertFalse(ledger.isStale("G2", OLDER));
+    }
+
+    @Test
+    void olderSyncDoesNotReplaceNewerEntry() {
+        when(repository.findById("G1")).thenReturn(Optional.of(entry("h", NEWER)));
+
+        ledger.record("G1", "old", 7, OLDER);
+        ledger.recordPartial("G1", 7, OLDER);
+
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void partialSyncKeepsOrderButMatchesNoContent() {
+        when(repository.findById("G1")).thenReturn(Optional.of(entry("h", OLDER)));
+
+        ledger.recordPartial("G1", 7, NEWER);
+
+        ArgumentCaptor<SyncLedgerEntry> saved = ArgumentCaptor.forClass(SyncLedgerEntry.class);
+        verify(repository).save(saved.capture());
+        assertEquals(NEWER, saved.getValue().getReceivedAt());
+        when(repository.findById("G1")).thenReturn(Optional.of(saved.getValue()));
+        assertTrue(ledger.findUnchanged("G1", "h").isEmpty());
+        assertTrue(ledger.isStale("G1", OLDER));
+    }
+
+    @Test
+    void unstampedSyncKeepsPreviousStamp() {
+        when(repository.findById("G1")).thenReturn(Optional.of(entry("h", OLDER)));
+
+        ledger.record("G1", "new", 7, null);
+
+        ArgumentCaptor<SyncLedgerEntry> saved = ArgumentCaptor.forClass(SyncLedgerEntry.class);
+        verify(repository).save(saved.capture());
+        assertEquals("new", saved.getValue().getContentHash());
+        assertEquals(OLDER, saved.getValue().getReceivedAt());
+    }
+
+    @Test
+    void hashIgnoresRosterOrderButNotRosterContent() {
+        String hash = ledger.contentHash(request("Obj", List.of("ana", "bruno"), List.of("carla", "dora")));
+
+        assertEquals(hash, ledger.contentHash(request("Obj", List.of("bruno", "ana"), List.of("dora", "carla"))));
+        assertNotEquals(hash, ledger.contentHash(request("Obj", List.of("ana"), List.of("carla", "dora"))));
+        assertNotEquals(hash, ledger.contentHash(request("Obj", List.of("ana", "carla"), List.of("bruno", "dora"))));
+        assertNotEquals(hash, ledger.contentHash(request("Other", List.of("ana", "bruno"), List.of("carla", "dora"))));
+    }
+
+    private static CourseSyncRequest request(String objectives, List<String> students, List<String> teachers) {
+        CourseSyncRequest request = new CourseSyncRequest();
+        request.setGroupId("G1");
+        request.setObjectives(objectives);
+        request.setStudents(students.stream().map(username -> {
+            CourseSyncRequest.StudentData student = new CourseSyncRequest.StudentData();
+            student.setUsername(username);
+            student.setEmail(username + "@example.org");
+            return student;
+        }).toList());
+        request.setTeachers(teachers.stream().map(username -> {
+            CourseSyncRequest.TeacherData teacher = new CourseSyncRequest.TeacherData();
+            teacher.setUsername(username);
+            return teacher;
+        }).toList());
+        return request;
+    }
+
+    private static SyncLedgerEntry entry(String hash, Instant receivedAt) {
+        return new SyncLedgerEntry("G1", hash, 7, Instant.now(), receivedAt);
+    }
+}
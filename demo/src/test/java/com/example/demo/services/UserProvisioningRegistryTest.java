@@ -0,0 +1,114 @@
+package com.example.demo.services;
+
+import com.example.demo.bens.MoodleUserRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UserProvisioningRegistryTest {
+
+    private final UserProvisioningRegistry registry = new UserProvisioningRegistry();
+
+    @Test
+    void personProvisionedByOneGroupIsReusedByTheNext() {
+        List<List<String>> calls = new ArrayList<>();
+
+        Map<String, Integer> first = registry.provision(List.of(user("P1", "ana"), user("P2", "bruno")),
+                recording(calls, Map.of("ana", 10, "bruno", 11)));
+        // Same person under another username casing, plus a new one
+        Map<String, Integer> second = registry.provision(List.of(user("P1", "ANA"), user("P3", "carla")),
+                recording(calls, Map.of("carla", 12)));
+
+        assertEquals(Map.of("ana", 10, "bruno", 11), first);
+        assertEquals(Map.of("ANA", 10, "carla", 12), second);
+        assertEquals(List.of(List.of("ana", "bruno"), List.of("carla")), calls);
+        assertEquals(3, registry.getProvisioned());
+        assertEquals(1, registry.getReused());
+    }
+
+    @Test
+    void usersWithoutPersonIdAreKeyedByUsername() {
+        registry.provision(List.of(user(null, "Ana")), users -> Map.of("Ana", 10));
+
+        assertEquals(Map.of("ana", 10), registry.provision(List.of(user("", "ana")), users -> Map.of()));
+        assertEquals(1, registry.getReused());
+    }
+
+    @Test
+    void userNotProvisionedCanBeClaimedAgain() {
+        Map<String, Integer> first = registry.provision(List.of(user("P1", "ana")), users -> Map.of());
+        assertTrue(first.isEmpty());
+
+        assertEquals(Map.of("ana", 10), registry.provision(List.of(user("P1", "ana")), users -> Map.of("ana", 10)));
+        assertEquals(0, registry.getReused());
+    }
+
+    @Test
+    void failedProvisionerReleasesItsClaims() {
+        assertThrows(IllegalStateException.class, () -> registry.provision(List.of(user("P1", "ana")), users -> {
+            throw new IllegalStateException("Moodle down");
+        }));
+
+        assertEquals(Map.of("ana", 10), registry.provision(List.of(user("P1", "ana")), users -> Map.of("ana", 10)));
+    }
+
+    @Test
+    void concurrentSyncWaitsForTheOwnerInsteadOfProvisioningAgain() throws Exception {
+        CountDownLatch claimed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Map<String, Integer>> owner = CompletableFuture.supplyAsync(() ->
+                registry.provision(List.of(user("P1", "ana")), users -> {
+                    claimed.countDown();
+                    await(release);
+                    return Map.of("ana", 10);
+                }));
+        assertTrue(claimed.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Map<String, Integer>> other = CompletableFuture.supplyAsync(() ->
+                registry.provision(List.of(user("P1", "ana")), users -> {
+                    throw new AssertionError("Provisioned twice: " + usernames(users));
+                }));
+        Thread.sleep(50);
+        assertFalse(other.isDone(), "waits for the owner");
+
+        release.countDown();
+        assertEquals(Map.of("ana", 10), owner.get(5, TimeUnit.SECONDS));
+        assertEquals(Map.of("ana", 10), other.get(5, TimeUnit.SECONDS));
+    }
+
+    private static Function<List<MoodleUserRequest>, Map<String, Integer>> recording(
+            List<List<String>> calls, Map<String, Integer> created) {
+        return users -> {
+            calls.add(usernames(users));
+            return created;
+        };
+    }
+
+    private static List<String> usernames(List<MoodleUserRequest> users) {
+        return users.stream().map(MoodleUserRequest::getUsername).collect(Collectors.toList());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MoodleUserRequest user(String personId, String username) {
+        return new MoodleUserRequest(personId, username, username, username, username + "@example.org");
+    }
+}